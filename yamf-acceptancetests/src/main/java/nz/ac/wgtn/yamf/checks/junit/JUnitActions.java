@@ -3,12 +3,15 @@ package nz.ac.wgtn.yamf.checks.junit;
 import com.google.common.base.Preconditions;
 import nz.ac.wgtn.yamf.Attachment;
 import nz.ac.wgtn.yamf.Attachments;
+import nz.ac.wgtn.yamf.SubmissionContext;
 import nz.ac.wgtn.yamf.commons.OS;
 import nz.ac.wgtn.yamf.commons.XML;
 import org.zeroturnaround.exec.ProcessResult;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.util.Date;
 import java.util.stream.Collectors;
@@ -16,7 +19,8 @@ import java.util.stream.Stream;
 
 /**
  * Actions to run tests (usually acceptance tests).
- * Details from test runs are extracted from xml reports generated by the junit runner, and stored in JUNIT_REPORT_FOLDER.
+ * Details from test runs are extracted from xml reports generated by the junit runner, and stored in a new folder in JUNIT_REPORT_FOLDER
+ * for each test run (named after the time the tests were run).
  * The console output is also captured. This could be parsed (instead of parsing the xml files), see outcommented code at the end.
  * Parsing XML files seems to be more reliable.
  * @author jens dietrich
@@ -43,16 +47,10 @@ public class JUnitActions {
         Preconditions.checkArgument(junitRunner!=null,"JUnit runner library must be provided (junit-platform-console-standalone-1.6.2.jar or similar)");
         Preconditions.checkArgument(junitRunner.exists(),"JUnit runner not found (junit-platform-console-standalone-1.6.2.jar or similar): " + junitRunner.getAbsolutePath());
 
-        File junitReportFolder = new File(new File(JUNIT_REPORT_FOLDER),""+FOLDERNAME_FROM_TIMESTAMP_FORMAT.format(new Date())); // unique folder names
-        junitReportFolder.mkdirs();
-
-        ProcessResult result = null;
-        if (classpath==null) {
-            result = OS.exe(new File("."), "java","-jar", junitRunner.getAbsolutePath(), "-reports-dir",junitReportFolder.getAbsolutePath(),"-c",testClass);
-        }
-        else {
-            result = OS.exe(new File("."), "java","-jar", junitRunner.getAbsolutePath(), "-reports-dir",junitReportFolder.getAbsolutePath(),"-cp",classpath,"-c",testClass);
-        }
+        // running tests is memoized for the submission being marked (see SubmissionContext), reports are parsed and attached for each call
+        TestRun testRun = SubmissionContext.memoize("junit",() -> run(junitRunner,testClass,classpath),junitRunner.getAbsoluteFile(),testClass,classpath);
+        ProcessResult result = testRun.result;
+        File junitReportFolder = testRun.junitReportFolder;
 
         // parse results
         String output = result.outputString();
@@ -94,6 +92,30 @@ public class JUnitActions {
         return testResults;
     }
 
+    private static class TestRun {
+        ProcessResult result = null;
+        File junitReportFolder = null;
+    }
+
+    private static TestRun run (File junitRunner, String testClass, String classpath) throws Exception {
+        TestRun testRun = new TestRun();
+        String timestamp = null;
+        synchronized (FOLDERNAME_FROM_TIMESTAMP_FORMAT) { // date formats are not thread-safe
+            timestamp = FOLDERNAME_FROM_TIMESTAMP_FORMAT.format(new Date());
+        }
+        // submissions marked in parallel may run tests at the same time, the temp folder name is unique
+        Path junitReportRoot = Files.createDirectories(Paths.get(JUNIT_REPORT_FOLDER));
+        testRun.junitReportFolder = Files.createTempDirectory(junitReportRoot,timestamp + "--").toFile();
+
+        if (classpath==null) {
+            testRun.result = OS.exe(new File("."), "java","-jar", junitRunner.getAbsolutePath(), "-reports-dir",testRun.junitReportFolder.getAbsolutePath(),"-c",testClass);
+        }
+        else {
+            testRun.result = OS.exe(new File("."), "java","-jar", junitRunner.getAbsolutePath(), "-reports-dir",testRun.junitReportFolder.getAbsolutePath(),"-cp",classpath,"-c",testClass);
+        }
+        return testRun;
+    }
+
     private static void extractStatsFromReport(File junitReport, TestResults testResults) throws Exception {
         assert junitReport.exists() : "generated junit report does not exist and cannot be parsed for test outcome: " + junitReport.getAbsolutePath();
         int testCount = XML.evalXPathSingleNodeAsInt(junitReport, "/testsuite/@tests");
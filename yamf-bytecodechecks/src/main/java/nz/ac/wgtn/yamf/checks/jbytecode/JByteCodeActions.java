@@ -1,6 +1,7 @@
 package nz.ac.wgtn.yamf.checks.jbytecode;
 
 import com.google.common.base.Preconditions;
+import nz.ac.wgtn.yamf.SubmissionContext;
 import nz.ac.wgtn.yamf.checks.jbytecode.descr.DescriptorParser;
 import nz.ac.wgtn.yamf.checks.jbytecode.descr.MethodDescriptor;
 import org.objectweb.asm.*;
@@ -105,11 +106,14 @@ public class JByteCodeActions {
     }
 
 
+    // memoized for the submission being marked (see SubmissionContext), as long as the file does not change
     public static JClass getClass(File file) throws Exception {
-        Preconditions.checkArgument(file.exists(),"File " + file.getAbsolutePath() + " does not exist");
-        JClassBuilder builder = new JClassBuilder();
-        ASMCommons.analyse(file,builder);
-        return builder.clazz;
+        return SubmissionContext.memoize("getClass",() -> {
+            Preconditions.checkArgument(file.exists(),"File " + file.getAbsolutePath() + " does not exist");
+            JClassBuilder builder = new JClassBuilder();
+            ASMCommons.analyse(file,builder);
+            return builder.clazz;
+        },file.getAbsoluteFile(),file.lastModified(),file.length());
     }
 
 
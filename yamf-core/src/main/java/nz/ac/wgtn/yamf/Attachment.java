@@ -2,18 +2,38 @@ package nz.ac.wgtn.yamf;
 
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
- * A file with some details that might be useful to report.
+ * A file or some other content with some details that might be useful to report.
+ * Attachments can be backed by a file, by a byte array, or by a supplier of streams (e.g. RingBuffer::openStream), so
+ * that content computed by checks (such as console excerpts or diffs) does not have to be written to temporary files.
+ * Content supplied by streams is only read if reporters render the attachment, and is read into memory when the attachment
+ * is serialized (e.g., sent from a worker JVM).
+ * The content is hashed when the hash is first requested, and the hash is kept (e.g., to store the content
+ * only once in an AttachmentBundle, or to report identical files attached to different checks only once).
  * @author jens dietrich
  */
-public class Attachment {
+public class Attachment implements Serializable {
+    private static final long serialVersionUID = 2L;
     private String name = null;
     private File file = null;
+    private byte[] bytes = null;
+    private transient Supplier<InputStream> streams = null;
     private String contentType = null;
+    private String contentHash = null;
 
     public Attachment(String name, File file, String contentType) {
         Preconditions.checkArgument(name!=null);
@@ -26,18 +46,81 @@ public class Attachment {
 
     }
 
+    // an attachment backed by a byte array, the array must not be modified after the attachment has been created
+    public Attachment(String name, byte[] content, String contentType) {
+        Preconditions.checkArgument(name!=null);
+        Preconditions.checkArgument(content!=null);
+        Preconditions.checkArgument(contentType!=null);
+        this.name = name;
+        this.bytes = content;
+        this.contentType = contentType;
+    }
+
+    // an attachment with content read from streams provided by a supplier, each stream is closed after it has been read
+    public Attachment(String name, Supplier<InputStream> content, String contentType) {
+        Preconditions.checkArgument(name!=null);
+        Preconditions.checkArgument(content!=null);
+        Preconditions.checkArgument(contentType!=null);
+        this.name = name;
+        this.streams = content;
+        this.contentType = contentType;
+    }
+
     public String getName() {
         return name;
     }
 
+    // the file, null if the attachment is not backed by a file
     public File getFile() {
         return file;
     }
 
+    // the content, read when the returned source is opened
+    public ByteSource getContent() {
+        if (file!=null) {
+            return Files.asByteSource(file);
+        }
+        if (bytes!=null) {
+            return ByteSource.wrap(bytes);
+        }
+        Supplier<InputStream> streams = this.streams;
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() {
+                return streams.get();
+            }
+        };
+    }
+
     public String getContentType() {
         return contentType;
     }
 
+    // the SHA-256 hash of the content (hex encoded)
+    public synchronized String getContentHash() throws IOException {
+        if (contentHash==null) {
+            contentHash = getContent().hash(Hashing.sha256()).toString();
+        }
+        return contentHash;
+    }
+
+    // streams cannot be serialized, the content is read into a byte array instead
+    private Object writeReplace() throws ObjectStreamException {
+        if (streams==null) {
+            return this;
+        }
+        try {
+            Attachment copy = new Attachment(name,getContent().read(),contentType);
+            copy.contentHash = contentHash;
+            return copy;
+        }
+        catch (IOException x) {
+            ObjectStreamException x2 = new InvalidObjectException("Cannot read the content of attachment " + name);
+            x2.initCause(x);
+            throw x2;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -45,16 +128,18 @@ public class Attachment {
         Attachment that = (Attachment) o;
         return Objects.equals(name, that.name) &&
                 Objects.equals(file, that.file) &&
+                Arrays.equals(bytes, that.bytes) &&
+                Objects.equals(streams, that.streams) &&
                 Objects.equals(contentType, that.contentType);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, file, contentType);
+        return Objects.hash(name, file, streams, contentType) * 31 + Arrays.hashCode(bytes);
     }
 
     @Override
     public String toString() {
-        return "Attachment{" + file.getName() + '}';
+        return "Attachment{" + (file==null ? name : file.getName()) + '}';
     }
 }
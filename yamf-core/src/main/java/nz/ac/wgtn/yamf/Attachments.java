@@ -1,52 +1,76 @@
 package nz.ac.wgtn.yamf;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import org.junit.platform.launcher.TestIdentifier;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Mechanism to record attachements that can be inlined into reports.
- * WARNING: this does not support testing using multiple threads.
+ * Attachments are recorded in a scope (one per execution of a marking plan), and keyed by the test they belong to,
+ * so several submissions can be marked at the same time on different threads (including virtual threads), and checks
+ * of the same submission can be run concurrently. The test a thread is running is bound to this thread when the test
+ * starts, attachments must therefore be added by the thread executing the test they belong to.
  * @author jens dietrich
  */
 public class Attachments {
 
-    private static TestIdentifier currentTest = null;
-    private static Multimap<TestIdentifier,Attachment> attachments = HashMultimap.create();
-
-    static void startTest(TestIdentifier test) {
-        Preconditions.checkState(currentTest==null);
-        currentTest = test;
+    // the attachments of the test run by the current thread, and the binding it replaced (if a thread runs nested tests)
+    private static class Binding {
+        Set<Attachment> attachments = Collections.synchronizedSet(new LinkedHashSet<>());
+        Binding previous = null;
     }
 
-    static void endTest(TestIdentifier test) {
-        Preconditions.checkState(currentTest==test);
-        currentTest = null;
-    }
+    private static ThreadLocal<Binding> current = new ThreadLocal<>();
+
+    // attachments recorded while executing a marking plan
+    static class Scope {
+
+        private Map<TestIdentifier,Binding> bindings = new ConcurrentHashMap<>();
 
-    static void reset() {
-        Preconditions.checkState(currentTest==null); // call endTest first
-        attachments = HashMultimap.create();
+        // must be called by the thread running the test
+        void startTest(TestIdentifier test) {
+            Binding binding = new Binding();
+            binding.previous = current.get();
+            Preconditions.checkState(bindings.putIfAbsent(test,binding)==null,"test has already been started: " + test.getDisplayName());
+            current.set(binding);
+        }
+
+        // must be called by the thread running the test, returns the attachments recorded for the test
+        Collection<Attachment> endTest(TestIdentifier test) {
+            Binding binding = bindings.remove(test);
+            Preconditions.checkState(binding!=null,"test has not been started: " + test.getDisplayName());
+            Preconditions.checkState(current.get()==binding,"test must be ended by the thread that started it: " + test.getDisplayName());
+            if (binding.previous==null) {
+                current.remove();
+            }
+            else {
+                current.set(binding.previous);
+            }
+            synchronized (binding.attachments) {
+                return Collections.unmodifiableCollection(new ArrayList<>(binding.attachments));
+            }
+        }
     }
 
     public static void add(Attachment attachment) {
-        Preconditions.checkState(currentTest!=null);
-        attachments.put(currentTest,attachment);
+        getCurrentAttachments().add(attachment);
     }
 
     public static void addAll(Collection<Attachment> attachments2) {
-        Preconditions.checkState(currentTest!=null);
-        attachments.putAll(currentTest,attachments2);
+        getCurrentAttachments().addAll(attachments2);
     }
 
-    static Collection<Attachment> getAttachments (TestIdentifier test) {
-        return Collections.unmodifiableCollection(attachments.get(test));
+    private static Set<Attachment> getCurrentAttachments() {
+        Binding binding = current.get();
+        Preconditions.checkState(binding!=null,"attachments can only be added by the thread running a check");
+        return binding.attachments;
     }
 
-
-
 }
@@ -0,0 +1,19 @@
+package nz.ac.wgtn.yamf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation indicating that a check (or all checks of a marking scheme if used on a class) can be run at the same time
+ * as other concurrency-safe checks of the same submission, i.e. the check only reads the submission folder, and does not
+ * use state shared with other checks that is not thread-safe. Examples are checks validating the POM, or checking the
+ * presence of files and IDE metadata. Only used if checks are run in parallel, see MarkingScriptBuilder::checkParallelism.
+ * Checks not annotated (and checks annotated with ExclusiveAccess) are run exclusively.
+ * @author jens dietrich
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD,ElementType.TYPE})
+public @interface ConcurrencySafe {
+}
@@ -0,0 +1,161 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import nz.ac.wgtn.yamf.commons.Fingerprints;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Model to estimate the cost of marking submissions, used to mark the submissions that take longest first (see
+ * MarkingScriptBuilder::scheduleLongestFirst). This keeps all workers busy until the end when marking in parallel.
+ * The cost of a submission is the time it took to mark it in a previous run if recorded in the history, otherwise it is
+ * estimated from the size of the submission: the size of its files, the number of files, and the number of pom.xml files
+ * (i.e., modules to be built). Size-based estimates are calibrated against the history if the history contains durations.
+ * @author jens dietrich
+ */
+public class CostModel {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+
+    // weights of signals in size-based estimates
+    private static final double WEIGHT_PER_KB = 1;
+    private static final double WEIGHT_PER_FILE = 1;
+    private static final double WEIGHT_PER_MODULE = 100;
+
+    private File historyFile = null;
+    private Map<String,Long> durations = new ConcurrentHashMap<>(); // submission names -> durations in millis
+    private Map<String,Double> sizeBasedEstimates = new ConcurrentHashMap<>();
+    private double millisPerSizeUnit = Double.NaN;
+
+    /**
+     * Create a cost model without history, costs are estimated from the size of submissions.
+     */
+    public CostModel() {
+    }
+
+    /**
+     * Create a cost model with a history of durations. Durations are loaded from the file if it exists, and are saved to
+     * this file when marking has finished.
+     * @param historyFile the file with the history
+     * @throws IOException
+     */
+    public CostModel(File historyFile) throws IOException {
+        Preconditions.checkArgument(historyFile!=null,"history file must be set");
+        this.historyFile = historyFile;
+        if (historyFile.exists()) {
+            Properties properties = new Properties();
+            try (Reader in = new FileReader(historyFile)) {
+                properties.load(in);
+            }
+            for (String submission:properties.stringPropertyNames()) {
+                try {
+                    durations.put(submission,Long.parseLong(properties.getProperty(submission)));
+                }
+                catch (NumberFormatException x) {
+                    LOGGER.warn("Ignoring invalid duration for submission " + submission + " in " + historyFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimate the cost of marking a submission.
+     * @param submission the submission folder
+     * @return the estimated cost, in millis if there is a history
+     */
+    public double estimateCost(File submission) {
+        Long duration = durations.get(submission.getName());
+        if (duration!=null) {
+            return duration;
+        }
+        double sizeBasedEstimate = getSizeBasedEstimate(submission);
+        return Double.isNaN(millisPerSizeUnit) ? sizeBasedEstimate : sizeBasedEstimate * millisPerSizeUnit;
+    }
+
+    /**
+     * Sort submissions by estimated cost, most expensive first.
+     * @param submissions the submission folders
+     * @return the sorted submissions
+     */
+    public List<File> sortByCost(Collection<File> submissions) {
+        calibrate(submissions);
+        Map<File,Double> costs = new HashMap<>();
+        for (File submission:submissions) {
+            costs.put(submission,estimateCost(submission));
+        }
+        List<File> sorted = new ArrayList<>(submissions);
+        sorted.sort(Comparator.comparing(costs::get).reversed());
+        return sorted;
+    }
+
+    // record the time it took to mark a submission
+    public void recordDuration(File submission, long durationInMillis) {
+        durations.put(submission.getName(),durationInMillis);
+    }
+
+    // save the history, if this model has a history file
+    public void save() throws IOException {
+        if (historyFile==null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String,Long> duration:durations.entrySet()) {
+            properties.setProperty(duration.getKey(),String.valueOf(duration.getValue()));
+        }
+        File tmp = new File(historyFile.getAbsolutePath() + ".tmp");
+        try (Writer out = new FileWriter(tmp)) {
+            properties.store(out,"durations (in millis) of marking submissions");
+        }
+        Files.move(tmp.toPath(),historyFile.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // compute how many millis a unit of size-based estimates takes, as the median of this ratio for submissions with known durations
+    private void calibrate(Collection<File> submissions) {
+        List<Double> ratios = new ArrayList<>();
+        for (File submission:submissions) {
+            Long duration = durations.get(submission.getName());
+            double sizeBasedEstimate = getSizeBasedEstimate(submission);
+            if (duration!=null && sizeBasedEstimate>0) {
+                ratios.add(duration/sizeBasedEstimate);
+            }
+        }
+        if (!ratios.isEmpty()) {
+            Collections.sort(ratios);
+            this.millisPerSizeUnit = ratios.get(ratios.size()/2);
+        }
+    }
+
+    private double getSizeBasedEstimate(File submission) {
+        return sizeBasedEstimates.computeIfAbsent(submission.getName(),name -> {
+            double[] signals = new double[3]; // bytes, files, modules
+            collectSizeSignals(submission,signals);
+            return WEIGHT_PER_KB * signals[0] / 1024 + WEIGHT_PER_FILE * signals[1] + WEIGHT_PER_MODULE * signals[2];
+        });
+    }
+
+    private void collectSizeSignals(File folder, double[] signals) {
+        File[] files = folder.listFiles();
+        if (files==null) {
+            return;
+        }
+        for (File file:files) {
+            if (file.isDirectory()) {
+                if (!Fingerprints.DEFAULT_EXCLUDED_FOLDERS.contains(file.getName()) && !file.isHidden()) {
+                    collectSizeSignals(file,signals);
+                }
+            }
+            else {
+                signals[0] = signals[0] + file.length();
+                signals[1] = signals[1] + 1;
+                if (file.getName().equals("pom.xml")) {
+                    signals[2] = signals[2] + 1;
+                }
+            }
+        }
+    }
+}
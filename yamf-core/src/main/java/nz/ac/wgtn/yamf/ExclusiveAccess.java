@@ -0,0 +1,18 @@
+package nz.ac.wgtn.yamf;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotation indicating that a check needs exclusive access to the submission folder, e.g. because it runs mvn,
+ * so no other check of the same submission is run at the same time. This overrides ConcurrencySafe annotations of the
+ * marking scheme. Checks are run exclusively by default, this annotation documents this, and can be used in
+ * marking schemes annotated with ConcurrencySafe.
+ * @author jens dietrich
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ExclusiveAccess {
+}
@@ -0,0 +1,186 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import nz.ac.wgtn.yamf.reporting.StackTraceFilters;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Compact summary of the throwable of a failed or aborted check, kept in result records instead of the throwable itself.
+ * Messages (e.g. failure details of junit tests run by a check) are truncated, frames of the junit engine and of the JDK
+ * are removed from stack traces, repeated frames (e.g., caused by deep recursion) are collapsed, and stack traces are truncated.
+ * The root cause of the throwable (e.g. the failure of a check wrapped into the exception reporting that the check has timed out)
+ * is kept as its type and message, without a stack trace.
+ * Type names, messages and frames are interned, so that identical failures of different submissions share memory.
+ * @author jens dietrich
+ */
+public class FailureSummary implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    public static final int MAX_MESSAGE_LENGTH = 4096;
+    public static final int MAX_STACK_TRACE_LENGTH = 64;
+
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final Interner<StackTraceElement> FRAMES = Interners.newWeakInterner();
+
+    private String type = null;
+    private String message = null;
+    private StackTraceElement[] stackTrace = null;
+    private String rootCauseType = null;
+    private String rootCauseMessage = null;
+
+    private FailureSummary(String type, String message, StackTraceElement[] stackTrace, String rootCauseType, String rootCauseMessage) {
+        this.type = type;
+        this.message = message;
+        this.stackTrace = stackTrace;
+        this.rootCauseType = rootCauseType;
+        this.rootCauseMessage = rootCauseMessage;
+    }
+
+    /**
+     * Summarise a throwable.
+     * @param throwable the throwable
+     * @return the summary
+     */
+    public static FailureSummary of(Throwable throwable) {
+        Preconditions.checkArgument(throwable!=null,"throwable must be set");
+        String message = truncate(throwable.getMessage());
+        Throwable rootCause = getRootCause(throwable);
+        List<StackTraceElement> frames = new ArrayList<>();
+        StackTraceElement previous = null;
+        for (StackTraceElement frame:throwable.getStackTrace()) {
+            if (frames.size()==MAX_STACK_TRACE_LENGTH) {
+                break;
+            }
+            if (StackTraceFilters.DEFAULT.test(frame) && !frame.equals(previous)) {
+                frames.add(FRAMES.intern(frame));
+            }
+            previous = frame;
+        }
+        return new FailureSummary(
+            STRINGS.intern(throwable.getClass().getName()),
+            intern(message),
+            frames.toArray(new StackTraceElement[frames.size()]),
+            rootCause==null ? null : STRINGS.intern(rootCause.getClass().getName()),
+            rootCause==null ? null : intern(truncate(rootCause.getMessage()))
+        );
+    }
+
+    // the last throwable in the cause chain, or null if the throwable has no cause
+    private static Throwable getRootCause(Throwable throwable) {
+        Set<Throwable> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        visited.add(throwable);
+        Throwable rootCause = null;
+        Throwable cause = throwable.getCause();
+        // cause chains can be cyclic
+        while (cause!=null && visited.add(cause)) {
+            rootCause = cause;
+            cause = cause.getCause();
+        }
+        return rootCause;
+    }
+
+    private static String truncate(String message) {
+        if (message!=null && message.length()>MAX_MESSAGE_LENGTH) {
+            return message.substring(0,MAX_MESSAGE_LENGTH) + "\n... (" + (message.length()-MAX_MESSAGE_LENGTH) + " characters omitted)";
+        }
+        return message;
+    }
+
+    private static String intern(String string) {
+        return string==null ? null : STRINGS.intern(string);
+    }
+
+    // intern summaries read from journals or received from worker JVMs
+    private Object readResolve() {
+        StackTraceElement[] frames = new StackTraceElement[stackTrace.length];
+        for (int i=0;i<frames.length;i++) {
+            frames[i] = FRAMES.intern(stackTrace[i]);
+        }
+        return new FailureSummary(STRINGS.intern(type),intern(message),frames,intern(rootCauseType),intern(rootCauseMessage));
+    }
+
+    // the name of the class of the throwable
+    public String getType() {
+        return type;
+    }
+
+    // the (possibly truncated) message, may be null
+    public String getMessage() {
+        return message;
+    }
+
+    // the filtered and truncated stack trace
+    public StackTraceElement[] getStackTrace() {
+        return stackTrace.clone();
+    }
+
+    // the name of the class of the root cause, or null if the throwable had no cause
+    public String getRootCauseType() {
+        return rootCauseType;
+    }
+
+    // the (possibly truncated) message of the root cause, may be null
+    public String getRootCauseMessage() {
+        return rootCauseMessage;
+    }
+
+    // a throwable with the message and the stack trace of this summary, and the root cause as cause (without stack trace),
+    // its string representation starts with the original type
+    public Throwable toThrowable() {
+        Throwable cause = rootCauseType==null ? null : new SummarizedThrowable(rootCauseType,rootCauseMessage,null);
+        Throwable throwable = new SummarizedThrowable(type,message,cause);
+        throwable.setStackTrace(stackTrace);
+        return throwable;
+    }
+
+    private static class SummarizedThrowable extends Throwable {
+        private static final long serialVersionUID = 1L;
+        private String type = null;
+
+        SummarizedThrowable(String type, String message, Throwable cause) {
+            super(message,cause,false,true);
+            this.type = type;
+        }
+
+        @Override
+        public String toString() {
+            return getMessage()==null ? type : type + ": " + getMessage();
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FailureSummary that = (FailureSummary) o;
+        return Objects.equals(type, that.type) &&
+                Objects.equals(message, that.message) &&
+                Arrays.equals(stackTrace, that.stackTrace) &&
+                Objects.equals(rootCauseType, that.rootCauseType) &&
+                Objects.equals(rootCauseMessage, that.rootCauseMessage);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, message, rootCauseType, rootCauseMessage) * 31 + Arrays.hashCode(stackTrace);
+    }
+
+    @Override
+    public String toString() {
+        String string = message==null ? type : type + ": " + message;
+        if (rootCauseType!=null) {
+            string = string + " (caused by " + (rootCauseMessage==null ? rootCauseType : rootCauseType + ": " + rootCauseMessage) + ")";
+        }
+        return string;
+    }
+}
@@ -0,0 +1,270 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Pool of long-lived worker JVMs used to mark submissions in isolation.
+ * Each worker JVM runs the main class of the marking script again, with the system property WORKER_PORT_PROPERTY set
+ * to the port of a loopback socket. MarkingScriptBuilder::run then does not mark the submissions set in the script,
+ * but connects to this socket, and marks the submissions sent by this pool one at a time, sending back the results.
+ * Workers are started when the pool is created, and are restarted if they die.
+ * The standard output and error streams of workers are inherited.
+ * If a worker dies while marking a submission (e.g. a check calls System.exit, or the JVM is killed when running out of memory),
+ * the results of this submission are completed with a WorkerFailedException, other submissions are marked by a new worker.
+ * @author jens dietrich
+ */
+class ForkedMarkingWorkers implements AutoCloseable {
+
+    static final String WORKER_PORT_PROPERTY = "yamf.worker.port";
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+    private static final int CONNECT_TIMEOUT_IN_MILLIS = 120_000;
+    private static final int SHUTDOWN_TIMEOUT_IN_SECONDS = 10;
+
+    // a request sent to a worker, the checks are the names of the checks to be run, or null if all checks are to be run,
+    // the failed checks are the names of checks not run that are known to have failed
+    private static class Request implements Serializable {
+        private static final long serialVersionUID = 2L;
+        File submission = null;
+        Set<String> checks = null;
+        Set<String> failedChecks = null;
+        Request(File submission, Set<String> checks, Set<String> failedChecks) {
+            this.submission = submission;
+            this.checks = checks==null ? null : new HashSet<>(checks);
+            this.failedChecks = new HashSet<>(failedChecks);
+        }
+    }
+
+    private static class Task {
+        Request request = null;
+        CompletableFuture<List<MarkingResultRecord>> results = new CompletableFuture<>();
+        Task(Request request) {
+            this.request = request;
+        }
+    }
+
+    // a single worker JVM and the connection to it
+    private static class Worker {
+        Process process = null;
+        Socket socket = null;
+        ObjectOutputStream out = null;
+        ObjectInputStream in = null;
+
+        List<MarkingResultRecord> mark(Request request) throws Exception {
+            out.writeObject(request);
+            out.flush();
+            out.reset(); // do not keep references to objects already sent
+            Object response = in.readObject();
+            if (response instanceof Exception) {
+                throw (Exception)response;
+            }
+            return (List<MarkingResultRecord>)response;
+        }
+
+        void close() {
+            try {
+                out.writeObject(null);
+                out.flush();
+                if (!process.waitFor(SHUTDOWN_TIMEOUT_IN_SECONDS,TimeUnit.SECONDS)) {
+                    LOGGER.warn("Worker JVM has not terminated, will be destroyed");
+                }
+            }
+            catch (Exception x) {
+                LOGGER.warn("Error shutting down worker JVM",x);
+            }
+            finally {
+                destroy();
+            }
+        }
+
+        void destroy() {
+            try {
+                socket.close();
+            }
+            catch (IOException x) {}
+            process.destroyForcibly();
+        }
+    }
+
+    // the worker JVM marking a submission has died
+    static class WorkerFailedException extends IllegalStateException {
+        WorkerFailedException(String message, Throwable cause) {
+            super(message,cause);
+        }
+    }
+
+    private static final Task STOP = new Task(null);
+
+    private List<String> command = null;
+    private BlockingQueue<Task> tasks = new LinkedBlockingQueue<>();
+    private List<Thread> dispatchers = new ArrayList<>();
+    private AtomicInteger liveDispatchers = new AtomicInteger();
+    private BiConsumer<File,Long> markingTimes = (submission,durationInMillis) -> {};
+
+    /**
+     * Start a pool of worker JVMs.
+     * @param count the number of workers
+     * @param mainClassAndArgs the main class of the marking script and its arguments, or "-jar", the jar and arguments
+     * @param jvmArgs additional arguments passed to the worker JVMs, such as -Xmx settings
+     */
+    ForkedMarkingWorkers(int count, List<String> mainClassAndArgs, List<String> jvmArgs) {
+        Preconditions.checkArgument(count>0,"the number of worker JVMs must be positive");
+        Preconditions.checkArgument(!mainClassAndArgs.isEmpty(),"the main class of the marking script must be set");
+        this.command = new ArrayList<>();
+        this.command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        this.command.add("-cp");
+        this.command.add(System.getProperty("java.class.path"));
+        this.command.addAll(jvmArgs);
+        this.command.add("-D" + WORKER_PORT_PROPERTY + "=%d");
+        this.command.addAll(mainClassAndArgs);
+
+        liveDispatchers.set(count);
+        for (int i=0;i<count;i++) {
+            Thread dispatcher = new Thread(this::dispatch,"yamf-worker-dispatcher-" + i);
+            dispatcher.setDaemon(true);
+            dispatchers.add(dispatcher);
+            dispatcher.start();
+        }
+    }
+
+    CompletableFuture<List<MarkingResultRecord>> submit(File submission, Set<String> checks, Set<String> failedChecks) {
+        Task task = new Task(new Request(submission,checks,failedChecks));
+        tasks.add(task);
+        return task.results;
+    }
+
+    // notified with the time it took to mark submissions, only if all checks have been run
+    void onMarked(BiConsumer<File,Long> markingTimes) {
+        this.markingTimes = markingTimes;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (int i=0;i<dispatchers.size();i++) {
+            tasks.add(STOP);
+        }
+        for (Thread dispatcher:dispatchers) {
+            dispatcher.join();
+        }
+    }
+
+    private void dispatch() {
+        Worker worker = null;
+        Task task = null;
+        try {
+            worker = startWorker();
+            while ((task=tasks.take())!=STOP) {
+                if (worker==null) {
+                    worker = startWorker();
+                }
+                try {
+                    long start = System.currentTimeMillis();
+                    List<MarkingResultRecord> results = worker.mark(task.request);
+                    if (task.request.checks==null) {
+                        markingTimes.accept(task.request.submission,System.currentTimeMillis()-start);
+                    }
+                    task.results.complete(results);
+                }
+                catch (IOException | ClassNotFoundException x) {
+                    // the connection is broken, most likely the worker has died -- the next task will use a new worker
+                    LOGGER.error("Worker JVM failed marking " + task.request.submission.getAbsolutePath(),x);
+                    task.results.completeExceptionally(new WorkerFailedException("Worker JVM failed marking " + task.request.submission.getAbsolutePath(),x));
+                    worker.destroy();
+                    worker = null;
+                }
+                catch (Exception x) {
+                    task.results.completeExceptionally(x);
+                }
+            }
+        }
+        catch (InterruptedException x) {
+            LOGGER.warn("Worker dispatcher interrupted",x);
+        }
+        catch (IOException x) {
+            LOGGER.error("Cannot start worker JVM",x);
+            if (task!=null && task!=STOP) {
+                task.results.completeExceptionally(x);
+            }
+            // if no worker is left, fail remaining tasks instead of waiting for them forever
+            if (liveDispatchers.decrementAndGet()==0) {
+                while ((task=tasks.poll())!=null) {
+                    task.results.completeExceptionally(x);
+                }
+            }
+            return;
+        }
+        finally {
+            if (worker!=null) {
+                worker.close();
+            }
+        }
+        liveDispatchers.decrementAndGet();
+    }
+
+    private Worker startWorker() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0,1,InetAddress.getLoopbackAddress())) {
+            serverSocket.setSoTimeout(CONNECT_TIMEOUT_IN_MILLIS);
+            List<String> command = new ArrayList<>();
+            for (String token:this.command) {
+                command.add(token.equals("-D" + WORKER_PORT_PROPERTY + "=%d") ? String.format(token,serverSocket.getLocalPort()) : token);
+            }
+            Worker worker = new Worker();
+            worker.process = new ProcessBuilder(command).inheritIO().start();
+            try {
+                worker.socket = serverSocket.accept();
+                worker.out = new ObjectOutputStream(new BufferedOutputStream(worker.socket.getOutputStream()));
+                worker.out.flush();
+                worker.in = new ObjectInputStream(new BufferedInputStream(worker.socket.getInputStream()));
+            }
+            catch (IOException x) {
+                worker.process.destroyForcibly();
+                throw x;
+            }
+            LOGGER.info("Worker JVM started");
+            return worker;
+        }
+    }
+
+    // run in a worker JVM, mark submissions received from the pool until the pool closes the connection
+    static void serve(int port, MarkingFunction marking) throws IOException, ClassNotFoundException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),port)) {
+            ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            Request request = null;
+            while ((request = (Request)in.readObject())!=null) {
+                Object response = null;
+                try {
+                    response = new ArrayList<>(marking.mark(request.submission,request.checks,request.failedChecks));
+                }
+                catch (Exception x) {
+                    // the original exception may not be serializable
+                    Exception x2 = new Exception("Marking " + request.submission.getAbsolutePath() + " has failed: " + x);
+                    x2.setStackTrace(x.getStackTrace());
+                    response = x2;
+                }
+                out.writeObject(response);
+                out.flush();
+                out.reset();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface MarkingFunction {
+        List<MarkingResultRecord> mark(File submission, Set<String> checks, Set<String> failedChecks) throws Exception;
+    }
+}
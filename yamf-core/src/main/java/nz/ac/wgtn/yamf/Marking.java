@@ -15,4 +15,8 @@ import java.lang.annotation.Target;
 public @interface Marking {
     double marks();
     String name();
+    // timeout in seconds, if the check takes longer, it is aborted and must be marked manually, 0 means no timeout
+    long timeout() default 0;
+    // names of checks that must succeed before this check is run, if one of them does not succeed, this check is aborted without being run
+    String[] requires() default {};
 }
@@ -0,0 +1,88 @@
+package nz.ac.wgtn.yamf;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * State of the execution of a marking plan for one submission, shared by all checks run for this submission.
+ * The execution is associated with the thread executing the plan, and with the threads running checks if checks are
+ * run concurrently.
+ * @author jens dietrich
+ */
+class MarkingExecution {
+
+    private static final ThreadLocal<MarkingExecution> CURRENT = new ThreadLocal<>();
+
+    private long deadline = Long.MAX_VALUE; // in nanos, see System::nanoTime
+    private Set<String> failedChecks = ConcurrentHashMap.newKeySet();
+    private SubmissionContext submissionContext = null;
+    // concurrency-safe checks share access to the submission, other checks need exclusive access
+    private ReadWriteLock submissionLock = new ReentrantReadWriteLock();
+
+    /**
+     * Create a new execution.
+     * @param submissionContext the context of the submission being marked
+     * @param timeBudgetInSeconds the time budget for all checks, 0 means no budget
+     */
+    MarkingExecution(SubmissionContext submissionContext, long timeBudgetInSeconds) {
+        this.submissionContext = submissionContext;
+        if (timeBudgetInSeconds>0) {
+            this.deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeBudgetInSeconds);
+        }
+    }
+
+    // the execution associated with the current thread, or null if checks are not run by a marking plan (e.g., when run in an IDE)
+    static MarkingExecution current() {
+        return CURRENT.get();
+    }
+
+    SubmissionContext getSubmissionContext() {
+        return submissionContext;
+    }
+
+    // associate this execution with the current thread, returns the execution previously associated with the thread (or null)
+    MarkingExecution bind() {
+        MarkingExecution previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    // restore the association replaced by bind()
+    static void restore(MarkingExecution previous) {
+        if (previous==null) {
+            CURRENT.remove();
+        }
+        else {
+            CURRENT.set(previous);
+        }
+    }
+
+    // record the outcome of a check, a check has failed if it (or one of its invocations for parameterised checks) has not succeeded
+    void checkFinished(String name, boolean successful) {
+        if (!successful) {
+            failedChecks.add(name);
+        }
+    }
+
+    // the checks with the given names that have failed
+    List<String> getFailedChecks(Collection<String> names) {
+        return names.stream().filter(failedChecks::contains).collect(Collectors.toList());
+    }
+
+    // the lock to be held by a check while it is running
+    Lock getSubmissionLock(boolean exclusive) {
+        return exclusive ? submissionLock.writeLock() : submissionLock.readLock();
+    }
+
+    // the remaining time budget in nanos, Long.MAX_VALUE if there is no budget
+    long getRemainingTime() {
+        return deadline==Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+}
@@ -0,0 +1,208 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import nz.ac.wgtn.yamf.commons.OS;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.InvocationInterceptor;
+import org.junit.jupiter.api.extension.ParameterContext;
+import org.junit.jupiter.api.extension.ParameterResolutionException;
+import org.junit.jupiter.api.extension.ParameterResolver;
+import org.junit.jupiter.api.extension.ReflectiveInvocationContext;
+import org.opentest4j.TestAbortedException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Extension enforcing the requirements of checks (see Marking::requires), the timeouts of checks (see Marking::timeout)
+ * and the time budget for submissions. Checks are aborted without being run if a check they require has not succeeded.
+ * When a check times out, the processes started by the check with OS::exe are killed, the thread running the check is
+ * interrupted, and the check is aborted, i.e. it must be marked manually. Checks that do not respond to interrupts
+ * (e.g., loops in the marking JVM that do not check the interrupted status) cannot be aborted.
+ * Fixtures are aborted in the same way when the time budget is exhausted, or when @BeforeEach and @AfterEach methods exceed the
+ * timeout of the check they are run for.
+ * If checks are run in parallel, checks only run at the same time as other checks of the same submission if they are
+ * concurrency-safe, see ConcurrencySafe and ExclusiveAccess.
+ * The extension also injects the context of the submission being marked into parameters of type SubmissionContext
+ * of check methods, fixtures and constructors.
+ * This extension is registered automatically when marking plans are executed, it is not meant to be used directly.
+ * @author jens dietrich
+ */
+public class MarkingExtension implements InvocationInterceptor, ParameterResolver {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("yamf-timeout").setDaemon(true).build()
+    );
+
+    @Override
+    public boolean supportsParameter(ParameterContext parameterContext, ExtensionContext extensionContext) throws ParameterResolutionException {
+        return parameterContext.getParameter().getType()==SubmissionContext.class;
+    }
+
+    @Override
+    public Object resolveParameter(ParameterContext parameterContext, ExtensionContext extensionContext) throws ParameterResolutionException {
+        SubmissionContext context = SubmissionContext.current();
+        if (context==null) {
+            throw new ParameterResolutionException("No submission is being marked, checks with a SubmissionContext parameter must be run by a marking plan");
+        }
+        return context;
+    }
+
+    @Override
+    public void interceptTestMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext, ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation,extensionContext);
+    }
+
+    @Override
+    public void interceptTestTemplateMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext, ExtensionContext extensionContext) throws Throwable {
+        intercept(invocation,extensionContext);
+    }
+
+    @Override
+    public void interceptBeforeAllMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext, ExtensionContext extensionContext) throws Throwable {
+        interceptFixture(invocation,invocationContext,extensionContext);
+    }
+
+    @Override
+    public void interceptBeforeEachMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext, ExtensionContext extensionContext) throws Throwable {
+        interceptFixture(invocation,invocationContext,extensionContext);
+    }
+
+    @Override
+    public void interceptAfterEachMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext, ExtensionContext extensionContext) throws Throwable {
+        interceptFixture(invocation,invocationContext,extensionContext);
+    }
+
+    @Override
+    public void interceptAfterAllMethod(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext, ExtensionContext extensionContext) throws Throwable {
+        interceptFixture(invocation,invocationContext,extensionContext);
+    }
+
+    // fixtures (such as a @BeforeAll method building the submission) are charged to the time budget of the submission,
+    // fixtures run for a single check (@BeforeEach and @AfterEach methods) are also subject to the timeout of this check
+    private void interceptFixture(Invocation<Void> invocation, ReflectiveInvocationContext<Method> invocationContext, ExtensionContext extensionContext) throws Throwable {
+        Marking marking = extensionContext.getTestMethod().map(method -> method.getAnnotation(Marking.class)).orElse(null);
+        run(invocation,extensionContext,marking,MarkingExecution.current(),invocationContext.getExecutable().getName());
+    }
+
+    private void intercept(Invocation<Void> invocation, ExtensionContext extensionContext) throws Throwable {
+        MarkingExecution execution = MarkingExecution.current();
+        Marking marking = extensionContext.getRequiredTestMethod().getAnnotation(Marking.class);
+
+        if (execution!=null && marking!=null) {
+            List<String> failedChecks = execution.getFailedChecks(Arrays.asList(marking.requires()));
+            if (!failedChecks.isEmpty()) {
+                invocation.skip();
+                throw new TestAbortedException("The required check(s) " + String.join(",",failedChecks) + " have not succeeded, the check has not been run and must be marked manually");
+            }
+        }
+
+        long remainingTime = execution==null ? Long.MAX_VALUE : execution.getRemainingTime();
+        Lock lock = execution==null ? null : execution.getSubmissionLock(!isConcurrencySafe(extensionContext));
+        if (remainingTime<=0 || (lock!=null && !lock.tryLock(remainingTime,TimeUnit.NANOSECONDS))) {
+            invocation.skip();
+            throw new TestAbortedException("The time budget for the submission is exhausted, the check has not been run and must be marked manually");
+        }
+        try {
+            run(invocation,extensionContext,marking,execution,null);
+        }
+        finally {
+            if (lock!=null) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static boolean isConcurrencySafe(ExtensionContext extensionContext) {
+        Method method = extensionContext.getRequiredTestMethod();
+        if (method.isAnnotationPresent(ExclusiveAccess.class)) {
+            return false;
+        }
+        return method.isAnnotationPresent(ConcurrencySafe.class) || extensionContext.getRequiredTestClass().isAnnotationPresent(ConcurrencySafe.class);
+    }
+
+    // run a check, or a fixture if the name of the fixture method is set
+    private void run(Invocation<Void> invocation, ExtensionContext extensionContext, Marking marking, MarkingExecution execution, String fixture) throws Throwable {
+        long timeout = marking==null || marking.timeout()<=0 ? Long.MAX_VALUE : TimeUnit.SECONDS.toNanos(marking.timeout());
+        long remainingTime = execution==null ? Long.MAX_VALUE : execution.getRemainingTime();
+        if (remainingTime<=0) {
+            invocation.skip();
+            throw new TestAbortedException(fixture==null
+                ? "The time budget for the submission is exhausted, the check has not been run and must be marked manually"
+                : "The time budget for the submission is exhausted, the fixture " + fixture + " has not been run and checks must be marked manually");
+        }
+        if (timeout==Long.MAX_VALUE && remainingTime==Long.MAX_VALUE) {
+            invocation.proceed();
+            return;
+        }
+
+        String reason = null;
+        if (fixture==null) {
+            reason = timeout<=remainingTime
+                ? "The check has timed out after " + marking.timeout() + "s and must be marked manually"
+                : "The time budget for the submission is exhausted, the check has been aborted and must be marked manually";
+        }
+        else {
+            reason = timeout<=remainingTime
+                ? "The fixture " + fixture + " has timed out after " + marking.timeout() + "s, checks must be marked manually"
+                : "The time budget for the submission is exhausted, the fixture " + fixture + " has been aborted and checks must be marked manually";
+        }
+        Watchdog watchdog = new Watchdog(Thread.currentThread());
+        ScheduledFuture<?> scheduledAbort = TIMER.schedule(watchdog::abort,Math.min(timeout,remainingTime),TimeUnit.NANOSECONDS);
+        Throwable failure = null;
+        try {
+            invocation.proceed();
+        }
+        catch (Throwable x) {
+            failure = x;
+        }
+        finally {
+            scheduledAbort.cancel(false);
+        }
+        if (watchdog.finish()) {
+            LOGGER.warn(reason + ": " + extensionContext.getDisplayName());
+            throw new TestAbortedException(reason,failure);
+        }
+        if (failure!=null) {
+            throw failure;
+        }
+    }
+
+    // aborts the thread running a check, unless the check has already finished
+    private static class Watchdog {
+        private Thread thread = null;
+        private boolean finished = false;
+        private boolean aborted = false;
+
+        Watchdog(Thread thread) {
+            this.thread = thread;
+        }
+
+        synchronized void abort() {
+            if (!finished) {
+                aborted = true;
+                OS.killProcesses(thread);
+                thread.interrupt();
+            }
+        }
+
+        // returns true if the check has been aborted
+        synchronized boolean finish() {
+            finished = true;
+            if (aborted) {
+                // clear the interrupted status set by abort, so that it does not affect the next check
+                Thread.interrupted();
+            }
+            return aborted;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package nz.ac.wgtn.yamf;
+
+import java.util.*;
+
+/**
+ * Index of the checks declared in a marking scheme, generated at compile time by MarkingIndexProcessor from @Marking
+ * and @ManualMarkingIsRequired annotations. The index of a marking scheme is a class in the same package, named after the
+ * marking scheme with the suffix SUFFIX. Checks are identified by method ids consisting of the class name,
+ * the method name and the parameter types (as used in junit method sources), so overloaded and parameterised checks can be
+ * distinguished. Marking plans use the index if it exists, and fall back to reflection otherwise (e.g. for checks inherited
+ * from superclasses, as indexes only contain the checks declared in a class).
+ * Indexes are cached per class, so a marking scheme loaded again by another class loader (e.g. after it has been recompiled) gets its own index.
+ * @author jens dietrich
+ */
+public abstract class MarkingIndex {
+
+    public static final String SUFFIX = "_MarkingIndex";
+
+    // indexes are loaded by the class loader of the marking scheme
+    private static final ClassValue<Optional<MarkingIndex>> INDEXES = new ClassValue<Optional<MarkingIndex>>() {
+        @Override
+        protected Optional<MarkingIndex> computeValue(Class<?> markingScheme) {
+            try {
+                Class<?> indexClass = Class.forName(markingScheme.getName() + SUFFIX,true,markingScheme.getClassLoader());
+                return Optional.of((MarkingIndex)indexClass.getConstructor().newInstance());
+            }
+            catch (ClassNotFoundException x) {
+                return Optional.empty();
+            }
+            catch (Exception x) {
+                throw new IllegalStateException("Cannot instantiate marking index for " + markingScheme.getName(),x);
+            }
+        }
+    };
+
+    // an indexed check
+    public static class Entry {
+        private String name = null;
+        private double marks = 0;
+        private boolean mustBeMarkedManually = false;
+        private String manualMarkingInstructions = null;
+        private List<String> requires = null;
+
+        private Entry(String name, double marks, boolean mustBeMarkedManually, String manualMarkingInstructions, List<String> requires) {
+            this.name = name;
+            this.marks = marks;
+            this.mustBeMarkedManually = mustBeMarkedManually;
+            this.manualMarkingInstructions = manualMarkingInstructions;
+            this.requires = requires;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getMarks() {
+            return marks;
+        }
+
+        public boolean isMustBeMarkedManually() {
+            return mustBeMarkedManually;
+        }
+
+        public String getManualMarkingInstructions() {
+            return manualMarkingInstructions;
+        }
+
+        public List<String> getRequires() {
+            return requires;
+        }
+    }
+
+    private Map<String,Entry> entries = new LinkedHashMap<>();
+
+    // called by the constructors of generated indexes
+    protected void add(String methodId, String name, double marks, boolean mustBeMarkedManually, String manualMarkingInstructions, String... requires) {
+        entries.put(methodId,new Entry(name,marks,mustBeMarkedManually,manualMarkingInstructions,Collections.unmodifiableList(Arrays.asList(requires))));
+    }
+
+    // the check with a method id, or null if there is no such check in the index
+    public Entry get(String methodId) {
+        return entries.get(methodId);
+    }
+
+    // the checks by method id, in the order in which they have been declared
+    public Map<String,Entry> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    // the id of a method, parameter types is a comma-separated list of class names (as returned by Class::getName)
+    public static String getMethodId(String className, String methodName, String parameterTypes) {
+        return className + "::" + methodName + "(" + (parameterTypes==null ? "" : parameterTypes) + ")";
+    }
+
+    /**
+     * Get the index of a marking scheme.
+     * @param markingScheme the class of the marking scheme
+     * @return the index, or null if no index has been generated for this class
+     */
+    public static MarkingIndex of(Class<?> markingScheme) {
+        return INDEXES.get(markingScheme).orElse(null);
+    }
+
+    /**
+     * Get the index of a marking scheme.
+     * @param markingScheme the name of the class of the marking scheme
+     * @param classLoader the class loader used to load the marking scheme
+     * @return the index, or null if the class does not exist, or no index has been generated for this class
+     */
+    public static MarkingIndex of(String markingScheme, ClassLoader classLoader) {
+        try {
+            return of(Class.forName(markingScheme,false,classLoader));
+        }
+        catch (ClassNotFoundException x) {
+            return null;
+        }
+    }
+}
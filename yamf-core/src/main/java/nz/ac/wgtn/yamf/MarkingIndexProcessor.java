@@ -0,0 +1,113 @@
+package nz.ac.wgtn.yamf;
+
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Annotation processor generating a MarkingIndex for each class declaring methods annotated with @Marking.
+ * The processor is registered in META-INF/services, and runs automatically when marking schemes are compiled with yamf-core on the classpath.
+ * @author jens dietrich
+ */
+@SupportedAnnotationTypes("nz.ac.wgtn.yamf.Marking")
+public class MarkingIndexProcessor extends AbstractProcessor {
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Map<TypeElement,List<ExecutableElement>> checksByClass = new LinkedHashMap<>();
+        for (Element element:roundEnv.getElementsAnnotatedWith(Marking.class)) {
+            if (element.getKind()==ElementKind.METHOD) {
+                checksByClass.computeIfAbsent((TypeElement)element.getEnclosingElement(),type -> new ArrayList<>()).add((ExecutableElement)element);
+            }
+        }
+        for (Map.Entry<TypeElement,List<ExecutableElement>> checks:checksByClass.entrySet()) {
+            try {
+                generateIndex(checks.getKey(),checks.getValue());
+            }
+            catch (IOException x) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,"Cannot generate marking index: " + x.getMessage(),checks.getKey());
+            }
+        }
+        return false; // other processors may also process @Marking
+    }
+
+    private void generateIndex(TypeElement markingScheme, List<ExecutableElement> checks) throws IOException {
+        Elements elements = processingEnv.getElementUtils();
+        String packageName = elements.getPackageOf(markingScheme).getQualifiedName().toString();
+        String className = elements.getBinaryName(markingScheme).toString();
+        String indexName = (packageName.isEmpty() ? className : className.substring(packageName.length()+1)) + MarkingIndex.SUFFIX;
+
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile((packageName.isEmpty() ? "" : packageName + ".") + indexName,markingScheme).openWriter())) {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("// generated by " + MarkingIndexProcessor.class.getName() + " from " + className + ", do not edit");
+            out.println("public class " + indexName + " extends " + MarkingIndex.class.getName() + " {");
+            out.println();
+            out.println("    public " + indexName + "() {");
+            for (ExecutableElement check:checks) {
+                Marking marking = check.getAnnotation(Marking.class);
+                ManualMarkingIsRequired manualMarking = check.getAnnotation(ManualMarkingIsRequired.class);
+                String parameterTypes = check.getParameters().stream().map(parameter -> getClassName(parameter.asType())).collect(Collectors.joining(", "));
+                List<String> args = new ArrayList<>();
+                args.add(elements.getConstantExpression(MarkingIndex.getMethodId(className,check.getSimpleName().toString(),parameterTypes)));
+                args.add(elements.getConstantExpression(marking.name()));
+                args.add(elements.getConstantExpression(marking.marks()));
+                args.add(String.valueOf(manualMarking!=null));
+                args.add(manualMarking==null ? "null" : elements.getConstantExpression(manualMarking.instructions()));
+                for (String requiredCheck:marking.requires()) {
+                    args.add(elements.getConstantExpression(requiredCheck));
+                }
+                out.println("        add(" + String.join(", ",args) + ");");
+            }
+            out.println("    }");
+            out.println("}");
+        }
+    }
+
+    // the name of the erasure of a type as returned by Class::getName
+    private String getClassName(TypeMirror type) {
+        Types types = processingEnv.getTypeUtils();
+        TypeMirror erasure = types.erasure(type);
+        if (erasure.getKind().isPrimitive()) {
+            return erasure.toString();
+        }
+        if (erasure.getKind()==TypeKind.ARRAY) {
+            return "[" + getDescriptor(((ArrayType)erasure).getComponentType());
+        }
+        return processingEnv.getElementUtils().getBinaryName((TypeElement)((DeclaredType)erasure).asElement()).toString();
+    }
+
+    // the descriptor of an array component type as used in the names of array classes
+    private String getDescriptor(TypeMirror type) {
+        switch (type.getKind()) {
+            case BOOLEAN: return "Z";
+            case BYTE: return "B";
+            case CHAR: return "C";
+            case SHORT: return "S";
+            case INT: return "I";
+            case LONG: return "J";
+            case FLOAT: return "F";
+            case DOUBLE: return "D";
+            case ARRAY: return "[" + getDescriptor(((ArrayType)type).getComponentType());
+            default: return "L" + getClassName(type) + ";";
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of marking results, used to resume marking if the JVM running the marking script dies.
+ * For each submission, the results are appended to the journal file as a frame consisting of the length and the
+ * checksum of the serialized results, followed by the serialized results. The file is synced to disk after each submission.
+ * When an existing journal is opened, an incomplete or corrupted last frame (written when the JVM died) is discarded.
+ * Journals can also be read without modifying them, this is used to merge the journals of shards (see ShardMerger).
+ * @author jens dietrich
+ */
+class MarkingJournal implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    private static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String submission = null;
+        List<MarkingResultRecord> results = null;
+
+        Entry(String submission, List<MarkingResultRecord> results) {
+            this.submission = submission;
+            this.results = new ArrayList<>(results);
+        }
+    }
+
+    private File file = null;
+    private FileChannel channel = null;
+    private Map<String,List<MarkingResultRecord>> entries = new LinkedHashMap<>();
+    // not a monitor, as a virtual thread waiting for the disk while holding a monitor would block its carrier thread
+    private ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Open a journal.
+     * @param file the journal file
+     * @param resume if true, the entries in an existing journal are read and new entries are appended, otherwise an existing journal is truncated
+     * @throws IOException
+     */
+    MarkingJournal(File file, boolean resume) throws IOException {
+        Preconditions.checkArgument(file!=null,"journal file must be set");
+        this.file = file;
+        if (resume) {
+            this.channel = FileChannel.open(file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.READ,StandardOpenOption.WRITE);
+            long validLength = read();
+            if (validLength<channel.size()) {
+                LOGGER.warn("Discarding incomplete entry at the end of journal " + file.getAbsolutePath());
+                channel.truncate(validLength);
+            }
+            channel.position(validLength);
+            LOGGER.info("Resuming marking, results for " + entries.size() + " submission(s) found in journal " + file.getAbsolutePath());
+        }
+        else {
+            this.channel = FileChannel.open(file.toPath(),StandardOpenOption.CREATE,StandardOpenOption.WRITE,StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    // read the entries of a journal without modifying it, an incomplete or corrupted last entry is ignored
+    static Map<String,List<MarkingResultRecord>> read(File file) throws IOException {
+        Preconditions.checkArgument(file!=null,"journal file must be set");
+        MarkingJournal journal = new MarkingJournal(file);
+        try {
+            if (journal.read()<journal.channel.size()) {
+                LOGGER.warn("Ignoring incomplete entry at the end of journal " + file.getAbsolutePath());
+            }
+            return Collections.unmodifiableMap(journal.entries);
+        }
+        finally {
+            journal.close();
+        }
+    }
+
+    private MarkingJournal(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),StandardOpenOption.READ);
+    }
+
+    // read all complete entries, and return the length of the part of the journal containing them
+    private long read() throws IOException {
+        long position = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position+HEADER_SIZE<=size) {
+            header.clear();
+            readFully(header,position);
+            header.flip();
+            int length = header.getInt();
+            long checksum = header.getLong();
+            if (length<0 || position+HEADER_SIZE+length>size) {
+                break;
+            }
+            ByteBuffer data = ByteBuffer.allocate(length);
+            readFully(data,position+HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(data.array());
+            if (crc.getValue()!=checksum) {
+                break;
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data.array()))) {
+                Entry entry = (Entry)in.readObject();
+                entries.put(entry.submission,Collections.unmodifiableList(entry.results));
+            }
+            catch (ClassNotFoundException | ClassCastException x) {
+                throw new IOException("Cannot read entry in journal " + file.getAbsolutePath(),x);
+            }
+            position = position+HEADER_SIZE+length;
+        }
+        return position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer,position+buffer.position())<0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    // the results recorded for a submission, or null if the submission is not in the journal
+    List<MarkingResultRecord> get(File submission) {
+        lock.lock();
+        try {
+            return entries.get(getKey(submission));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // append results for a submission, and sync the journal to disk
+    void append(File submission, List<MarkingResultRecord> results) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new Entry(getKey(submission),results));
+        }
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE+data.length);
+        frame.putInt(data.length);
+        frame.putLong(crc.getValue());
+        frame.put(data);
+        frame.flip();
+        lock.lock();
+        try {
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+            channel.force(false);
+            entries.put(getKey(submission),Collections.unmodifiableList(new ArrayList<>(results)));
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private static String getKey(File submission) {
+        return submission.getAbsolutePath();
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
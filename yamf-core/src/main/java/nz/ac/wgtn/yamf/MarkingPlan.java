@@ -0,0 +1,451 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.platform.engine.FilterResult;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.support.descriptor.ClassSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.Launcher;
+import org.junit.platform.launcher.LauncherDiscoveryRequest;
+import org.junit.platform.launcher.PostDiscoveryFilter;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
+import org.junit.platform.launcher.core.LauncherFactory;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+
+/**
+ * A marking scheme compiled into an immutable plan that can be executed repeatedly, once for each submission.
+ * Compiling a plan discovers the checks of the marking scheme, and extracts the marking information from their annotations.
+ * Plans can be executed by several threads at the same time. Each execution borrows a junit test plan from a bounded pool of
+ * discovered test plans, checks are only discovered again if all pooled test plans are in use. A test plan is only used by one
+ * execution at a time, as junit adds dynamic tests (such as invocations of parameterised checks) to a test plan while executing it.
+ * If checks require other checks (see Marking::requires), checks are run after the checks they require, in a single execution
+ * (the test methods of a class are reordered if necessary). The plan is only executed in stages if checks are run concurrently
+ * (see compile(Class,int)), or if checks require checks in other classes: checks within a stage are independent of each other.
+ * Note that methods annotated with @BeforeAll and @AfterAll are then run once per stage.
+ * @author jens dietrich
+ */
+public class MarkingPlan {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+
+    // enables MarkingExtension, registered in META-INF/services
+    private static final String EXTENSION_AUTODETECTION = "junit.jupiter.extensions.autodetection.enabled";
+    private static final String PARALLEL_EXECUTION = "junit.jupiter.execution.parallel.enabled";
+    private static final String PARALLEL_EXECUTION_MODE = "junit.jupiter.execution.parallel.mode.default";
+    private static final String PARALLEL_EXECUTION_STRATEGY = "junit.jupiter.execution.parallel.config.strategy";
+    private static final String PARALLEL_EXECUTION_PARALLELISM = "junit.jupiter.execution.parallel.config.fixed.parallelism";
+
+    // the max number of idle test plans kept per plan
+    static final int MAX_POOLED_TEST_PLANS = 64;
+
+    private Class markingScheme = null;
+    private Launcher launcher = null;
+    private Map<String,String> configurationParameters = null;
+    private PostDiscoveryFilter[] filters = null;
+    private Map<String,MarkingTestExecutionListener.AssignedMark> marks = null;
+    private Map<String,Set<String>> requirements = null; // check names -> names of required checks
+    private Map<String,String> classNames = null; // check names -> names of the classes declaring checks
+    private List<MarkingPlan> stages = null;
+    private BlockingQueue<DiscoveredTestPlan> testPlans = new LinkedBlockingQueue<>(MAX_POOLED_TEST_PLANS);
+
+    private MarkingPlan(Class markingScheme, Launcher launcher, Map<String,String> configurationParameters, PostDiscoveryFilter... filters) {
+        this.markingScheme = markingScheme;
+        this.launcher = launcher;
+        this.configurationParameters = configurationParameters;
+        this.filters = filters;
+
+        Map<String,MarkingTestExecutionListener.AssignedMark> marks = new LinkedHashMap<>();
+        Map<String,Set<String>> requirements = new LinkedHashMap<>();
+        Map<String,String> classNames = new HashMap<>();
+        DiscoveredTestPlan discoveredTestPlan = discover();
+        TestPlan testPlan = discoveredTestPlan.testPlan;
+        for (TestIdentifier root:testPlan.getRoots()) {
+            for (TestIdentifier testIdentifier:testPlan.getDescendants(root)) {
+                // containers with a method source are parameterised checks, their invocations are only discovered when run
+                if (testIdentifier.getSource().isPresent() && testIdentifier.getSource().get() instanceof MethodSource) {
+                    MethodSource methodSource = (MethodSource)testIdentifier.getSource().get();
+                    try {
+                        MarkingIndex.Entry entry = getIndexEntry(methodSource);
+                        if (entry!=null) {
+                            marks.put(getKey(methodSource),toMark(entry));
+                            requirements.put(entry.getName(),new LinkedHashSet<>(entry.getRequires()));
+                            classNames.put(entry.getName(),methodSource.getClassName());
+                            continue;
+                        }
+                        MarkingTestExecutionListener.AssignedMark mark = extractMark(methodSource);
+                        if (mark!=null) {
+                            marks.put(getKey(methodSource),mark);
+                            Marking markingAnnotation = getMethod(methodSource).getAnnotation(Marking.class);
+                            requirements.put(mark.name,new LinkedHashSet<>(Arrays.asList(markingAnnotation.requires())));
+                            classNames.put(mark.name,methodSource.getClassName());
+                        }
+                    }
+                    catch (ClassNotFoundException | NoSuchMethodException x) {
+                        LOGGER.error("Exception extracting mark from test " + testIdentifier.getDisplayName(),x);
+                    }
+                }
+            }
+        }
+        this.marks = Collections.unmodifiableMap(marks);
+        this.requirements = Collections.unmodifiableMap(requirements);
+        this.classNames = classNames;
+        this.stages = computeStages();
+        orderChecks(discoveredTestPlan);
+        releaseTestPlan(discoveredTestPlan);
+    }
+
+    // a junit test plan, the descriptors of its classes, and the descriptors of its checks that register dynamic tests when executed
+    private static class DiscoveredTestPlan {
+        TestPlan testPlan = null;
+        Set<TestDescriptor> classContainers = new LinkedHashSet<>();
+        List<TestDescriptor> dynamicContainers = new ArrayList<>();
+
+        // remove the dynamic tests registered by the previous execution, junit would otherwise run their stale descriptors again
+        void reset() {
+            for (TestDescriptor container:dynamicContainers) {
+                for (TestDescriptor child:new ArrayList<>(container.getChildren())) {
+                    container.removeChild(child);
+                }
+            }
+        }
+    }
+
+    private DiscoveredTestPlan discover() {
+        DiscoveredTestPlan discoveredTestPlan = new DiscoveredTestPlan();
+        PostDiscoveryFilter recordContainers = testDescriptor -> {
+            // only leaves are filtered, classes are recorded as parents of their test methods
+            TestDescriptor parent = testDescriptor.getParent().orElse(null);
+            if (parent!=null && parent.getSource().orElse(null) instanceof ClassSource) {
+                discoveredTestPlan.classContainers.add(parent);
+            }
+            if (testDescriptor.mayRegisterTests()) {
+                discoveredTestPlan.dynamicContainers.add(testDescriptor);
+            }
+            return FilterResult.included("not filtered");
+        };
+        LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder
+            .request()
+            .selectors(selectClass(markingScheme))
+            .filters(filters)
+            .filters(recordContainers)
+            .configurationParameters(configurationParameters).build();
+        discoveredTestPlan.testPlan = launcher.discover(request);
+        return discoveredTestPlan;
+    }
+
+    // borrow a test plan from the pool, checks are only discovered again if the pool is empty
+    private DiscoveredTestPlan acquireTestPlan() {
+        DiscoveredTestPlan testPlan = testPlans.poll();
+        if (testPlan==null) {
+            testPlan = discover();
+            orderChecks(testPlan);
+        }
+        return testPlan;
+    }
+
+    // reorder the children of classes so that checks are run after the checks they require in the same class,
+    // the order of junit (e.g., set with @TestMethodOrder) is kept otherwise
+    private void orderChecks(DiscoveredTestPlan testPlan) {
+        for (TestDescriptor container:testPlan.classContainers) {
+            List<TestDescriptor> children = new ArrayList<>(container.getChildren());
+            Map<TestDescriptor,String> checks = new HashMap<>();
+            for (TestDescriptor child:children) {
+                TestSource source = child.getSource().orElse(null);
+                MarkingTestExecutionListener.AssignedMark mark = source instanceof MethodSource ? marks.get(getKey((MethodSource)source)) : null;
+                if (mark!=null) {
+                    checks.put(child,mark.name);
+                }
+            }
+            List<TestDescriptor> orderedChildren = new ArrayList<>();
+            Set<String> unscheduledChecks = new HashSet<>(checks.values());
+            List<TestDescriptor> unscheduledChildren = new ArrayList<>(children);
+            while (!unscheduledChildren.isEmpty()) {
+                // requirements are acyclic, so there is always a child that does not require an unscheduled check
+                TestDescriptor next = unscheduledChildren.stream()
+                    .filter(child -> !checks.containsKey(child) || Collections.disjoint(requirements.get(checks.get(child)),unscheduledChecks))
+                    .findFirst().get();
+                unscheduledChildren.remove(next);
+                unscheduledChecks.remove(checks.get(next));
+                orderedChildren.add(next);
+            }
+            if (!orderedChildren.equals(children)) {
+                orderedChildren.forEach(container::removeChild);
+                orderedChildren.forEach(container::addChild);
+            }
+        }
+    }
+
+    // return a test plan to the pool, test plans returned to a full pool are discarded
+    private void releaseTestPlan(DiscoveredTestPlan testPlan) {
+        testPlan.reset();
+        testPlans.offer(testPlan);
+    }
+
+    /**
+     * Compile a marking scheme into a plan.
+     * @param markingScheme the class with the checks
+     * @return a plan
+     */
+    public static MarkingPlan compile(Class markingScheme) {
+        return compile(markingScheme,1);
+    }
+
+    /**
+     * Compile a marking scheme into a plan. If parallelism is greater than one, independent checks are run concurrently
+     * (using the parallel execution mode of junit), in this case, checks must not rely on state confined to the thread
+     * executing the plan.
+     * @param markingScheme the class with the checks
+     * @param parallelism the max number of checks to be run at the same time
+     * @return a plan
+     */
+    public static MarkingPlan compile(Class markingScheme, int parallelism) {
+        Preconditions.checkArgument(markingScheme!=null,"marking scheme must be set");
+        Preconditions.checkArgument(parallelism>0,"parallelism must be positive");
+        Map<String,String> configurationParameters = new HashMap<>();
+        configurationParameters.put(EXTENSION_AUTODETECTION,"true");
+        if (parallelism>1) {
+            configurationParameters.put(PARALLEL_EXECUTION,"true");
+            configurationParameters.put(PARALLEL_EXECUTION_MODE,"concurrent");
+            configurationParameters.put(PARALLEL_EXECUTION_STRATEGY,"fixed");
+            configurationParameters.put(PARALLEL_EXECUTION_PARALLELISM,String.valueOf(parallelism));
+        }
+        MarkingPlan plan = new MarkingPlan(markingScheme,LauncherFactory.create(),Collections.unmodifiableMap(configurationParameters));
+        for (Map.Entry<String,Set<String>> requirement:plan.requirements.entrySet()) {
+            for (String requiredCheck:requirement.getValue()) {
+                Preconditions.checkArgument(plan.requirements.containsKey(requiredCheck),"check " + requirement.getKey() + " requires unknown check " + requiredCheck);
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Derive a plan that only runs some of the checks of this plan.
+     * @param checkNames the names of the checks to be run
+     * @return a plan
+     */
+    public MarkingPlan filter(Set<String> checkNames) {
+        // filter by method source, this also covers containers for parameterised checks
+        PostDiscoveryFilter filter = testDescriptor -> {
+            TestSource source = testDescriptor.getSource().orElse(null);
+            if (!(source instanceof MethodSource)) {
+                return FilterResult.included("not a check");
+            }
+            MarkingTestExecutionListener.AssignedMark mark = marks.get(getKey((MethodSource)source));
+            return FilterResult.includedIf(mark!=null && checkNames.contains(mark.name));
+        };
+        return new MarkingPlan(markingScheme,launcher,configurationParameters,filter);
+    }
+
+    // group checks into stages, so that checks only require checks in previous stages (required checks not in this plan are ignored
+    // here, their results can be passed to execute)
+    private List<MarkingPlan> computeStages() {
+        Map<String,Integer> stageIndices = new HashMap<>();
+        for (String check:requirements.keySet()) {
+            computeStage(check,stageIndices,new LinkedHashSet<>());
+        }
+        int stageCount = stageIndices.values().stream().mapToInt(i -> i+1).max().orElse(1);
+        if (stageCount==1) {
+            return Collections.singletonList(this);
+        }
+        boolean requiresChecksInOtherClasses = requirements.entrySet().stream().anyMatch(requirement ->
+            requirement.getValue().stream().anyMatch(requiredCheck -> classNames.containsKey(requiredCheck) && !classNames.get(requiredCheck).equals(classNames.get(requirement.getKey())))
+        );
+        if (!requiresChecksInOtherClasses && !configurationParameters.containsKey(PARALLEL_EXECUTION)) {
+            // checks are run one after another, and after the checks they require, see orderChecks
+            return Collections.singletonList(this);
+        }
+        List<MarkingPlan> stages = new ArrayList<>();
+        for (int i=0;i<stageCount;i++) {
+            int stageIndex = i;
+            stages.add(filter(stageIndices.keySet().stream().filter(check -> stageIndices.get(check)==stageIndex).collect(Collectors.toSet())));
+        }
+        LOGGER.info("Checks in " + markingScheme.getName() + " will be run in " + stageCount + " stages");
+        return Collections.unmodifiableList(stages);
+    }
+
+    // the stage of a check is the length of the longest chain of checks it requires
+    private int computeStage(String check, Map<String,Integer> stageIndices, Set<String> visiting) {
+        Integer stageIndex = stageIndices.get(check);
+        if (stageIndex!=null) {
+            return stageIndex;
+        }
+        Preconditions.checkArgument(visiting.add(check),"checks have cyclic requirements: " + String.join(" -> ",visiting) + " -> " + check);
+        int stageIndex2 = 0;
+        for (String requiredCheck:requirements.get(check)) {
+            if (requirements.containsKey(requiredCheck)) {
+                stageIndex2 = Math.max(stageIndex2,computeStage(requiredCheck,stageIndices,visiting)+1);
+            }
+        }
+        visiting.remove(check);
+        stageIndices.put(check,stageIndex2);
+        return stageIndex2;
+    }
+
+    /**
+     * Execute the plan, i.e. run all checks.
+     * @return the results, sorted by name
+     */
+    public List<MarkingResultRecord> execute() {
+        return execute(new SubmissionContext(null),0);
+    }
+
+    /**
+     * Execute the plan for a submission with a time budget. Checks still running when the budget is exhausted are aborted, and checks
+     * not started yet are not run, those checks are reported as aborted, i.e. they must be marked manually.
+     * @param submissionContext the context of the submission being marked, see SubmissionContext::current
+     * @param timeBudgetInSeconds the time budget for all checks in seconds, 0 means no budget
+     * @return the results, sorted by name
+     */
+    public List<MarkingResultRecord> execute(SubmissionContext submissionContext, long timeBudgetInSeconds) {
+        return execute(submissionContext,timeBudgetInSeconds,record -> {});
+    }
+
+    /**
+     * Execute the plan for a submission with a time budget, and pass the result of each check to a consumer as soon as
+     * the check has finished. The consumer is invoked by the thread running the check.
+     * @param submissionContext the context of the submission being marked, see SubmissionContext::current
+     * @param timeBudgetInSeconds the time budget for all checks in seconds, 0 means no budget
+     * @param onRecord the consumer of results
+     * @return the results, sorted by name
+     */
+    public List<MarkingResultRecord> execute(SubmissionContext submissionContext, long timeBudgetInSeconds, Consumer<MarkingResultRecord> onRecord) {
+        return execute(submissionContext,timeBudgetInSeconds,Collections.emptySet(),onRecord);
+    }
+
+    /**
+     * Execute the plan for a submission when the results of some checks not in this plan are already known, e.g. a plan
+     * derived with filter(Set) to re-run some checks. Checks requiring one of the failed checks are reported as aborted without being run.
+     * @param submissionContext the context of the submission being marked, see SubmissionContext::current
+     * @param timeBudgetInSeconds the time budget for all checks in seconds, 0 means no budget
+     * @param failedChecks the names of checks known to have failed (or to have been aborted)
+     * @param onRecord the consumer of results
+     * @return the results, sorted by name
+     */
+    public List<MarkingResultRecord> execute(SubmissionContext submissionContext, long timeBudgetInSeconds, Set<String> failedChecks, Consumer<MarkingResultRecord> onRecord) {
+        Preconditions.checkArgument(submissionContext!=null,"submission context must be set");
+        Preconditions.checkArgument(timeBudgetInSeconds>=0,"time budget must not be negative");
+        Preconditions.checkArgument(failedChecks!=null,"failed checks must be set");
+        MarkingExecution execution = new MarkingExecution(submissionContext,timeBudgetInSeconds);
+        for (String failedCheck:failedChecks) {
+            execution.checkFinished(failedCheck,false);
+        }
+        MarkingTestExecutionListener listener = new MarkingTestExecutionListener(this,execution) ;
+        listener.onRecord(onRecord);
+        MarkingExecution previousExecution = execution.bind();
+        try {
+            for (MarkingPlan stage:stages) {
+                DiscoveredTestPlan testPlan = stage.acquireTestPlan();
+                try {
+                    launcher.execute(testPlan.testPlan,listener);
+                }
+                finally {
+                    stage.releaseTestPlan(testPlan);
+                }
+            }
+        }
+        finally {
+            MarkingExecution.restore(previousExecution);
+        }
+        return listener.getResults();
+    }
+
+    public Class getMarkingScheme() {
+        return markingScheme;
+    }
+
+    // the marks of all checks in the marking scheme
+    public Collection<MarkingTestExecutionListener.AssignedMark> getMarks() {
+        return marks.values();
+    }
+
+    // the names of all checks in the marking scheme
+    public Set<String> getCheckNames() {
+        return marks.values().stream().map(mark -> mark.name).collect(Collectors.toSet());
+    }
+
+    // the sum of the max marks of all checks (penalties do not count)
+    public double getMaxMarks() {
+        return marks.values().stream().mapToDouble(mark -> mark.marks < 0 ? 0 : mark.marks).sum();
+    }
+
+    // get the mark of a check (or of the container of the invocations of a parameterised check), or null if the test is not a check with a @Marking annotation
+    MarkingTestExecutionListener.AssignedMark getMark(TestIdentifier testIdentifier) {
+        TestSource source = testIdentifier.getSource().orElse(null);
+        if (source instanceof MethodSource) {
+            return marks.get(getKey((MethodSource)source));
+        }
+        return null;
+    }
+
+    private static String getKey(MethodSource methodSource) {
+        return MarkingIndex.getMethodId(methodSource.getClassName(),methodSource.getMethodName(),methodSource.getMethodParameterTypes());
+    }
+
+    // look up a check in the index generated for its class, returns null if there is no index or the check is not in the index
+    private static MarkingIndex.Entry getIndexEntry(MethodSource methodSource) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        MarkingIndex index = MarkingIndex.of(methodSource.getClassName(),classLoader==null ? MarkingPlan.class.getClassLoader() : classLoader);
+        return index==null ? null : index.get(getKey(methodSource));
+    }
+
+    private static MarkingTestExecutionListener.AssignedMark toMark(MarkingIndex.Entry entry) {
+        return new MarkingTestExecutionListener.AssignedMark(entry.getMarks(),entry.getName(),entry.isMustBeMarkedManually(),entry.getManualMarkingInstructions());
+    }
+
+    // use the index generated for the class of the check, or reflection to extract annotation if there is no index
+    static MarkingTestExecutionListener.AssignedMark extractMark(MethodSource methodSource) throws ClassNotFoundException, NoSuchMethodException {
+        MarkingIndex.Entry entry = getIndexEntry(methodSource);
+        if (entry!=null) {
+            return toMark(entry);
+        }
+        Method method = getMethod(methodSource);
+        Marking markingAnnotation = method.getAnnotation(Marking.class);
+        if (markingAnnotation ==null) {
+            LOGGER.warn("No @Mark annotation found in test " + methodSource.getClassName() + "::" + methodSource.getMethodName());
+            return null;
+        }
+        else {
+            ManualMarkingIsRequired manualMarkingAnnotation = method.getAnnotation(ManualMarkingIsRequired.class);
+            return new MarkingTestExecutionListener.AssignedMark(
+                markingAnnotation.marks(),
+                markingAnnotation.name(),
+                manualMarkingAnnotation!=null,
+                manualMarkingAnnotation==null?null:manualMarkingAnnotation.instructions());
+        }
+    }
+
+    private static Method getMethod(MethodSource methodSource) throws ClassNotFoundException, NoSuchMethodException {
+        Class clazz = Class.forName(methodSource.getClassName());
+        return getMethod(clazz,methodSource.getMethodName(),methodSource.getMethodParameterTypes());
+    }
+
+    // the parameter types are a comma-separated list of class names, as used in junit method sources
+    private static Method getMethod(Class clazz, String name, String parameterTypes) throws NoSuchMethodException {
+        if (parameterTypes==null || parameterTypes.equals("")) {
+            return clazz.getMethod(name);
+        }
+        for (Class clazz2=clazz;clazz2!=null;clazz2=clazz2.getSuperclass()) {
+            for (Method method : clazz2.getDeclaredMethods()) {
+                String parameterTypes2 = Stream.of(method.getParameterTypes()).map(Class::getName).collect(Collectors.joining(", "));
+                if (method.getName().equals(name) && parameterTypes2.equals(parameterTypes)) {
+                    return method;
+                }
+            }
+        }
+        throw new NoSuchMethodException(clazz.getName() + "::" + name + "(" + parameterTypes + ")");
+    }
+
+}
@@ -0,0 +1,87 @@
+package nz.ac.wgtn.yamf;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Profile of marking a sample of submissions, see MarkingScriptBuilder::profile.
+ * Ranks checks by their mean wall time, and estimates the time it takes to mark all submissions.
+ * @author jens dietrich
+ */
+class MarkingProfile {
+
+    static final List<String> PROFILED_COMMANDS = Collections.unmodifiableList(Arrays.asList("mvn","java"));
+
+    private Map<String,List<MarkingResultRecord>> recordsByCheck = new TreeMap<>();
+    private Map<File,Long> submissionDurations = new LinkedHashMap<>();
+
+    // add the results of marking a submission, and the time it took to mark it
+    void add(File submission, List<MarkingResultRecord> results, long durationInMillis) {
+        submissionDurations.put(submission,durationInMillis);
+        for (MarkingResultRecord record:results) {
+            recordsByCheck.computeIfAbsent(record.getName(),name -> new ArrayList<>()).add(record);
+        }
+    }
+
+    // the mean time it took to mark a submission, in millis
+    double getMeanSubmissionDuration() {
+        return submissionDurations.values().stream().mapToLong(Long::longValue).average().orElse(0);
+    }
+
+    // estimated time to mark a number of submissions, if a number of submissions is marked at the same time
+    long estimateDuration(int submissionCount, int parallelism) {
+        return (long)Math.ceil(getMeanSubmissionDuration() * Math.ceil((double)submissionCount / parallelism));
+    }
+
+    // the names of the profiled checks, by mean wall time, slowest first
+    List<String> getChecksByMeanDuration() {
+        List<String> checks = new ArrayList<>(recordsByCheck.keySet());
+        checks.sort(Comparator.comparing((String check) -> getMeanDuration(check)).reversed());
+        return checks;
+    }
+
+    double getMeanDuration(String check) {
+        return recordsByCheck.get(check).stream().mapToLong(MarkingResultRecord::getWallTimeInMillis).average().orElse(0);
+    }
+
+    // the p-th percentile of wall times (nearest rank), p between 0 and 100
+    long getPercentileDuration(String check, double p) {
+        long[] durations = recordsByCheck.get(check).stream().mapToLong(MarkingResultRecord::getWallTimeInMillis).sorted().toArray();
+        if (durations.length==0) {
+            return 0;
+        }
+        int rank = (int)Math.ceil(p / 100 * durations.length);
+        return durations[Math.max(0,rank-1)];
+    }
+
+    // the number of child processes with this command started by a check, in all profiled submissions
+    int getSpawnCount(String check, String command) {
+        return (int)recordsByCheck.get(check).stream().flatMap(record -> record.getChildProcessCommands().stream()).filter(command::equals).count();
+    }
+
+    void print(PrintStream out, int submissionCount, int parallelism) {
+        out.println("====== MARKING PROFILE ======");
+        out.println("sampled " + submissionDurations.size() + " of " + submissionCount + " submission(s)");
+        out.println();
+        out.print(String.format("%-30s%10s%10s%10s%10s","check","runs","mean(ms)","p95(ms)","cpu(ms)"));
+        for (String command:PROFILED_COMMANDS) {
+            out.print(String.format("%10s",command));
+        }
+        out.println();
+        for (String check:getChecksByMeanDuration()) {
+            List<MarkingResultRecord> records = recordsByCheck.get(check);
+            double meanCpuTime = records.stream().mapToLong(record -> record.getCpuTimeInMillis()+record.getChildProcessCpuTimeInMillis()).average().orElse(0);
+            out.print(String.format("%-30s%10d%10.0f%10d%10.0f",check,records.size(),getMeanDuration(check),getPercentileDuration(check,95),meanCpuTime));
+            for (String command:PROFILED_COMMANDS) {
+                out.print(String.format("%10d",getSpawnCount(check,command)));
+            }
+            out.println();
+        }
+        out.println();
+        out.println(String.format("mean time per submission: %.1fs",getMeanSubmissionDuration()/1000));
+        out.println(String.format("estimated time for %d submission(s) with parallelism %d: %.1f min",submissionCount,parallelism,estimateDuration(submissionCount,parallelism)/60_000.0));
+        out.println("=============================");
+        out.flush();
+    }
+}
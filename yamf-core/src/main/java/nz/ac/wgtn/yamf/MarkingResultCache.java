@@ -0,0 +1,72 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache for the results of marking submissions, used for incremental re-marking.
+ * For each submission, the results are stored in a file in the cache folder together with the fingerprints of the
+ * submission and of the marking scheme used to produce them.
+ * @author jens dietrich
+ */
+class MarkingResultCache {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+    private static final String EXTENSION = ".yamf-results";
+
+    static class Entry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String submissionFingerprint = null;
+        String markingSchemeFingerprint = null;
+        List<MarkingResultRecord> results = null;
+
+        Entry(String submissionFingerprint, String markingSchemeFingerprint, List<MarkingResultRecord> results) {
+            this.submissionFingerprint = submissionFingerprint;
+            this.markingSchemeFingerprint = markingSchemeFingerprint;
+            this.results = new ArrayList<>(results);
+        }
+    }
+
+    private File folder = null;
+
+    MarkingResultCache(File folder) {
+        Preconditions.checkArgument(folder!=null,"cache folder must be set");
+        folder.mkdirs();
+        Preconditions.checkArgument(folder.isDirectory(),"cache folder cannot be created: " + folder.getAbsolutePath());
+        this.folder = folder;
+    }
+
+    // returns null if there is no entry for this submission, or if the entry cannot be read
+    Entry get(File submission) {
+        File file = getFile(submission);
+        if (!file.exists()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return (Entry)in.readObject();
+        }
+        catch (IOException | ClassNotFoundException | ClassCastException x) {
+            LOGGER.warn("Cannot read cached results for submission " + submission.getName() + ", submission will be re-marked",x);
+            return null;
+        }
+    }
+
+    void put(File submission, Entry entry) throws IOException {
+        File file = getFile(submission);
+        File tmp = new File(folder,file.getName() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeObject(entry);
+        }
+        Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getFile(File submission) {
+        return new File(folder,submission.getName() + EXTENSION);
+    }
+}
@@ -3,27 +3,94 @@ package nz.ac.wgtn.yamf;
 import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.launcher.TestIdentifier;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.Objects;
 
 /**
  * The result of marking one particular question and aspect corresponding to a test annotated with @Mark and @Test.
  * This is the information that will be used to generate resports.
+ * Records are serializable so that they can be sent from worker JVMs to the JVM running the marking script.
+ * Records are compact, so that the results of a whole cohort can be kept in memory: they do not reference junit objects,
+ * and instead of the throwable of a failed or aborted check, they keep a summary (see FailureSummary).
+ * Records also contain the resources used by the check: its wall time and CPU time, and the CPU time and peak RSS of the child processes
+ * started by the check with OS::exe. Resources used by child processes are only available on Linux, and are otherwise 0.
+ * Parameterised and repeated checks are reported with one record for all invocations, see aggregate().
  * @author jens dietrich
  */
-public class MarkingResultRecord {
+public class MarkingResultRecord implements Serializable {
+
+    private static final long serialVersionUID = 2L;
 
     private MarkingTestExecutionListener.AssignedMark mark = null;
-    private TestIdentifier testIdentifier = null;
-    private TestExecutionResult testExecutionResult = null;
+    private String testIdentifier = null;
+    private TestExecutionResult.Status status = null;
+    private FailureSummary failure = null;
     private Collection<Attachment> attachments = Collections.EMPTY_SET;
+    private long wallTimeInMillis = 0;
+    private long cpuTimeInMillis = 0;
+    private long childProcessCpuTimeInMillis = 0;
+    private long childProcessPeakRssInKB = 0;
+    private List<String> childProcessCommands = Collections.EMPTY_LIST;
 
     public MarkingResultRecord(MarkingTestExecutionListener.AssignedMark mark, TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+        this(mark,testIdentifier.getDisplayName(),testExecutionResult.getStatus(),testExecutionResult.getThrowable().map(FailureSummary::of).orElse(null));
+    }
+
+    private MarkingResultRecord(MarkingTestExecutionListener.AssignedMark mark, String testIdentifier, TestExecutionResult.Status status, FailureSummary failure) {
         this.mark = mark;
         this.testIdentifier = testIdentifier;
-        this.testExecutionResult = testExecutionResult;
+        this.status = status;
+        this.failure = failure;
+    }
+
+    /**
+     * Combine the results of the invocations of a parameterised or repeated check into one record, the marks of the check are only
+     * awarded once. The check only succeeds if all invocations succeed, otherwise the record has the status and the failure of the first
+     * failed (or, if no invocation has failed, aborted) invocation. Attachments are merged, and resources are added up.
+     * @param mark the mark of the check
+     * @param testIdentifier the container of the invocations
+     * @param testExecutionResult the result of the container
+     * @param invocations the records of the invocations
+     * @return a record
+     */
+    static MarkingResultRecord aggregate(MarkingTestExecutionListener.AssignedMark mark, TestIdentifier testIdentifier, TestExecutionResult testExecutionResult, List<MarkingResultRecord> invocations) {
+        MarkingResultRecord record = new MarkingResultRecord(mark,testIdentifier,testExecutionResult);
+        Set<Attachment> attachments = new LinkedHashSet<>();
+        List<String> childProcessCommands = new ArrayList<>();
+        for (MarkingResultRecord invocation:invocations) {
+            // statuses are declared in order of severity
+            if (invocation.status.compareTo(record.status)>0) {
+                record.status = invocation.status;
+                record.failure = invocation.failure;
+            }
+            attachments.addAll(invocation.attachments);
+            childProcessCommands.addAll(invocation.childProcessCommands);
+            record.wallTimeInMillis = record.wallTimeInMillis + invocation.wallTimeInMillis;
+            record.cpuTimeInMillis = record.cpuTimeInMillis + invocation.cpuTimeInMillis;
+            record.childProcessCpuTimeInMillis = record.childProcessCpuTimeInMillis + invocation.childProcessCpuTimeInMillis;
+            record.childProcessPeakRssInKB = Math.max(record.childProcessPeakRssInKB,invocation.childProcessPeakRssInKB);
+        }
+        record.setAttachments(Collections.unmodifiableCollection(attachments));
+        record.setChildProcessCommands(childProcessCommands);
+        return record;
+    }
+
+    /**
+     * Create a record for a check that has been aborted without a result, e.g. because the worker JVM running the check has died.
+     * @param mark the mark of the check
+     * @param reason the reason why the check has been aborted
+     * @return a record
+     */
+    static MarkingResultRecord aborted(MarkingTestExecutionListener.AssignedMark mark, Throwable reason) {
+        return new MarkingResultRecord(mark,mark.name,TestExecutionResult.Status.ABORTED,FailureSummary.of(reason));
     }
+
     public boolean isPenalty() {
         return mark.marks < 0;
     }
@@ -36,6 +103,51 @@ public class MarkingResultRecord {
         this.attachments = attachments==null?Collections.EMPTY_SET:attachments;
     }
 
+    // the elapsed time running the check
+    public long getWallTimeInMillis() {
+        return wallTimeInMillis;
+    }
+
+    public void setWallTimeInMillis(long wallTimeInMillis) {
+        this.wallTimeInMillis = wallTimeInMillis;
+    }
+
+    // the CPU time of the thread running the check
+    public long getCpuTimeInMillis() {
+        return cpuTimeInMillis;
+    }
+
+    public void setCpuTimeInMillis(long cpuTimeInMillis) {
+        this.cpuTimeInMillis = cpuTimeInMillis;
+    }
+
+    // the CPU time of all child processes started by the check, and their descendants
+    public long getChildProcessCpuTimeInMillis() {
+        return childProcessCpuTimeInMillis;
+    }
+
+    public void setChildProcessCpuTimeInMillis(long childProcessCpuTimeInMillis) {
+        this.childProcessCpuTimeInMillis = childProcessCpuTimeInMillis;
+    }
+
+    // the max resident set size of a single child process started by the check, or their descendants
+    public long getChildProcessPeakRssInKB() {
+        return childProcessPeakRssInKB;
+    }
+
+    public void setChildProcessPeakRssInKB(long childProcessPeakRssInKB) {
+        this.childProcessPeakRssInKB = childProcessPeakRssInKB;
+    }
+
+    // the commands (names of executables, such as mvn or java) of child processes started by the check, in the order in which they terminated
+    public List<String> getChildProcessCommands() {
+        return childProcessCommands;
+    }
+
+    public void setChildProcessCommands(List<String> childProcessCommands) {
+        this.childProcessCommands = childProcessCommands==null?Collections.EMPTY_LIST:new ArrayList<>(childProcessCommands);
+    }
+
     public double getMark() {
         // if marks are set negative, then this is flipped
         if (mark.marks < 0) {
@@ -44,7 +156,7 @@ public class MarkingResultRecord {
                 return 0; // default: no penalty but must be checked
             }
             else {
-                return testExecutionResult.getStatus() == TestExecutionResult.Status.SUCCESSFUL ? 0 : mark.marks;
+                return status == TestExecutionResult.Status.SUCCESSFUL ? 0 : mark.marks;
             }
         }
         else {
@@ -53,7 +165,7 @@ public class MarkingResultRecord {
                 return 0; // default: no marks but must be checked
             }
             else {
-                return testExecutionResult.getStatus() == TestExecutionResult.Status.SUCCESSFUL ? mark.marks : 0;
+                return status == TestExecutionResult.Status.SUCCESSFUL ? mark.marks : 0;
             }
         }
     }
@@ -77,11 +189,11 @@ public class MarkingResultRecord {
     }
 
     public String getTestIdentifier() {
-        return testIdentifier.getDisplayName();
+        return testIdentifier;
     }
 
     public String getResultStatus() {
-        return testExecutionResult.getStatus().name();
+        return status.name();
     }
 
     public boolean isSuccess() {
@@ -97,11 +209,17 @@ public class MarkingResultRecord {
     }
 
     public boolean hasThrowable() {
-        return testExecutionResult.getThrowable().isPresent();
+        return failure!=null;
     }
 
+    // a throwable with the message and the stack trace of the failure summary
     public Throwable getThrowable() {
-        return testExecutionResult.getThrowable().get();
+        return failure==null ? null : failure.toThrowable();
+    }
+
+    // null if the check has succeeded
+    public FailureSummary getFailure() {
+        return failure;
     }
 
     @Override
@@ -112,12 +230,13 @@ public class MarkingResultRecord {
         MarkingResultRecord that = (MarkingResultRecord) o;
         return Objects.equals(mark, that.mark) &&
                 Objects.equals(testIdentifier, that.testIdentifier) &&
-                Objects.equals(testExecutionResult, that.testExecutionResult);
+                status == that.status &&
+                Objects.equals(failure, that.failure);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(mark, testIdentifier, testExecutionResult);
+        return Objects.hash(mark, testIdentifier, status, failure);
     }
 
     @Override
@@ -125,7 +244,8 @@ public class MarkingResultRecord {
         return "MarkingResultRecord{" +
                 "mark=" + mark +
                 ", testIdentifier=" + testIdentifier +
-                ", testExecutionResult=" + testExecutionResult +
+                ", status=" + status +
+                ", failure=" + failure +
                 '}';
     }
 }
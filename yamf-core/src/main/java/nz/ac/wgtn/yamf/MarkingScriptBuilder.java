@@ -1,38 +1,89 @@
 package nz.ac.wgtn.yamf;
 
 import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import nz.ac.wgtn.yamf.commons.Fingerprints;
+import nz.ac.wgtn.yamf.commons.OS;
+import nz.ac.wgtn.yamf.commons.ProcessGovernor;
+import nz.ac.wgtn.yamf.commons.VirtualThreads;
+import nz.ac.wgtn.yamf.reporting.CohortReporter;
 import nz.ac.wgtn.yamf.reporting.Reporter;
+import nz.ac.wgtn.yamf.reporting.StreamingReporter;
 import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.apache.logging.log4j.core.config.DefaultConfiguration;
-import org.junit.platform.launcher.Launcher;
-import org.junit.platform.launcher.LauncherDiscoveryRequest;
-import org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder;
-import org.junit.platform.launcher.core.LauncherFactory;
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.function.Function;
-
-import static org.junit.platform.engine.discovery.DiscoverySelectors.selectClass;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Marking script builder.
+ * Submissions can be marked in parallel by setting a parallelism greater than one, or by providing an executor.
+ * In this case, each submission is marked on a worker thread with its own listener and attachments, and the
+ * action set with beforeMarkingEachProjectDo is invoked on this worker thread. Marking schemes that inject the
+ * submission into a static field are therefore not safe to be used in parallel, the submission should be stored
+ * in a thread-confined variable instead (e.g. a ThreadLocal). Reporters and the action set with afterMarkingEachActionDo
+ * are always invoked on the thread running the script, in the order in which submissions have been set.
+ * Worker threads can also be virtual threads, see useVirtualThreads().
+ * Alternatively, submissions can be marked in a pool of forked worker JVMs, see forkWorkers(int). This isolates
+ * submissions from each other, and can be used with marking schemes that inject submissions into static fields.
  * @author jens dietrich
  */
 public class MarkingScriptBuilder {
 
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+    public static final long DEFAULT_QUIET_PERIOD_IN_MILLIS = 2000;
 
     private Consumer<File> beforeMarkingEachProject = (projectFolder) -> {};
     private Consumer<File> afterMarkingEachProject = (projectFolder) -> {};
     private Runnable beforeMarkingAllProjects = () -> {};
     private Runnable afterMarkingAllProjects = () -> {};
     private List<Function<File, Reporter>> reporterFactories = new ArrayList<>();
+    private List<CohortReporter> cohortReporters = new ArrayList<>();
     private File[] submissions = null;
     private Class markingScheme = null;
     private boolean configureLogging = true;
     private Level logLevel = Level.INFO;
+    private int parallelism = 1;
+    private ExecutorService executor = null;
+    private boolean virtualThreads = false;
+    private ProcessGovernor processGovernor = null;
+    private int forkedWorkers = 0;
+    private List<String> workerJvmArgs = new ArrayList<>();
+    private Class workerMainClass = null;
+    private MarkingResultCache resultCache = null;
+    private Predicate<File> forceRemarking = projectFolder -> false;
+    private Set<String> forcedChecks = Collections.emptySet();
+    private boolean reuseResultsAfterSchemeChanges = false;
+    private File journalFile = null;
+    private boolean resume = false;
+    private long timeoutPerSubmission = 0;
+    private int checkParallelism = 1;
+    private CostModel costModel = null;
+    private int profileSampleSize = 0;
+    private int shardIndex = 0;
+    private int shardCount = 1;
+    private File dropFolder = null;
+    private long quietPeriodInMillis = DEFAULT_QUIET_PERIOD_IN_MILLIS;
+
+    // set when marking starts
+    private MarkingJournal journal = null;
+    private MarkingPlan plan = null;
+    private Map<Set<String>,MarkingPlan> filteredPlans = new ConcurrentHashMap<>();
+    private boolean streamRecords = false;
+    private Map<File,List<Reporter>> liveReporters = new ConcurrentHashMap<>();
+    private String markingSchemeFingerprint = null;
 
     public MarkingScriptBuilder beforeMarkingEachProjectDo(Consumer<File> action) {
         this.beforeMarkingEachProject = action;
@@ -54,12 +105,19 @@ public class MarkingScriptBuilder {
         return this;
     }
 
-    // the function maps submissions to reporters
+    // the function maps submissions to reporters, reporters can also implement StreamingReporter
     public MarkingScriptBuilder reportTo(Function<File,Reporter> reporter) {
         this.reporterFactories.add(reporter);
         return this;
     }
 
+    // a reporter receiving the results of all submissions, e.g. to produce a gradebook
+    public MarkingScriptBuilder reportCohortTo(CohortReporter reporter) {
+        Preconditions.checkNotNull(reporter);
+        this.cohortReporters.add(reporter);
+        return this;
+    }
+
     public MarkingScriptBuilder submissions(File[] submissions) {
         this.submissions = submissions;
         return this;
@@ -81,38 +139,702 @@ public class MarkingScriptBuilder {
         return this;
     }
 
+    // the number of submissions marked at the same time, ignored if an executor is set
+    public MarkingScriptBuilder parallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism>0,"parallelism must be positive");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    // executor used to mark submissions, the executor is not shut down when marking is finished
+    public MarkingScriptBuilder executor(ExecutorService executor) {
+        Preconditions.checkNotNull(executor);
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * Mark each submission on its own virtual thread if the JVM supports virtual threads (Java 21 or better), or on a pool
+     * of parallelism platform threads otherwise. Most of the time marking is spent waiting for child processes (e.g., mvn builds),
+     * a blocked virtual thread does not block a platform thread. The number of submissions marked at the same time is still
+     * bounded by the parallelism set, this can be set much higher than the number of processors when using virtual threads.
+     * Ignored if an executor is set.
+     * @return this builder
+     */
+    public MarkingScriptBuilder useVirtualThreads() {
+        this.virtualThreads = true;
+        return this;
+    }
+
+    /**
+     * Limit the child processes (such as mvn builds) started by checks with OS::exe that run at the same time, see ProcessGovernor.
+     * The governor is set when marking starts. Note that worker JVMs (see forkWorkers(int)) each use their own governor.
+     * @param governor the governor
+     * @return this builder
+     */
+    public MarkingScriptBuilder governProcesses(ProcessGovernor governor) {
+        Preconditions.checkNotNull(governor);
+        this.processGovernor = governor;
+        return this;
+    }
+
+    /**
+     * Mark submissions in a pool of worker JVMs. Worker JVMs are started once, and run the main class of the marking
+     * script (with the same arguments) in a mode where run() marks submissions sent by this JVM, and sends back the results.
+     * Only the action set with beforeMarkingEachProjectDo is performed in worker JVMs, reporting and all other actions
+     * are performed in this JVM, and worker JVMs exit when run() returns. Note that worker JVMs use the classpath of this JVM.
+     * @param count the number of worker JVMs
+     * @return this builder
+     */
+    public MarkingScriptBuilder forkWorkers(int count) {
+        Preconditions.checkArgument(count>0,"the number of worker JVMs must be positive");
+        this.forkedWorkers = count;
+        return this;
+    }
+
+    // additional arguments for forked worker JVMs, such as -Xmx settings
+    public MarkingScriptBuilder workerJvmArgs(String... args) {
+        this.workerJvmArgs = Arrays.asList(args);
+        return this;
+    }
+
+    // the class with the main method to be run by forked worker JVMs, by default, the main class of this JVM is used
+    public MarkingScriptBuilder workerMainClass(Class mainClass) {
+        this.workerMainClass = mainClass;
+        return this;
+    }
+
+    /**
+     * Mark submissions incrementally. The results of marking a submission are stored in the cache folder together with
+     * fingerprints of the submission (computed from the content of the submission folder, see Fingerprints) and of the marking scheme
+     * (computed from its byte code). Submissions are only re-marked if one of those fingerprints has changed, otherwise the stored
+     * results are reported again.
+     * @param cacheFolder the folder where results are stored
+     * @return this builder
+     */
+    public MarkingScriptBuilder incremental(File cacheFolder) {
+        this.resultCache = new MarkingResultCache(cacheFolder);
+        return this;
+    }
+
+    // submissions to be re-marked even if their results are up to date, only used when marking incrementally
+    public MarkingScriptBuilder forceRemarking(Predicate<File> submissions) {
+        Preconditions.checkNotNull(submissions);
+        this.forceRemarking = submissions;
+        return this;
+    }
+
+    /**
+     * Checks to be re-run for all submissions, only used when marking incrementally. The stored results of all other checks
+     * are reused as long as neither the submission nor the marking scheme has changed, see also reuseResultsAfterSchemeChanges().
+     * Checks that are new in the marking scheme are always run. If a check that is re-run requires a check with a stored result
+     * that is not successful, the check is reported as aborted without being run.
+     * @param checkNames the names of the checks (as defined in @Marking)
+     * @return this builder
+     */
+    public MarkingScriptBuilder forceRemarkingOfChecks(String... checkNames) {
+        this.forcedChecks = new HashSet<>(Arrays.asList(checkNames));
+        return this;
+    }
+
+    /**
+     * Reuse the stored results of checks that are not forced (see forceRemarkingOfChecks) even if the marking scheme has changed,
+     * only used when marking incrementally. This assumes that the forced checks are the only checks that have been changed
+     * (checks that are new in the marking scheme are run anyway), stored results of other changed checks would be reported again.
+     * @return this builder
+     */
+    public MarkingScriptBuilder reuseResultsAfterSchemeChanges() {
+        this.reuseResultsAfterSchemeChanges = true;
+        return this;
+    }
+
+    // record the results for each submission in a journal as soon as the submission has been marked, see resume(File)
+    public MarkingScriptBuilder journal(File journal) {
+        Preconditions.checkNotNull(journal);
+        this.journalFile = journal;
+        this.resume = false;
+        return this;
+    }
+
+    /**
+     * Resume marking from a journal written by a previous run of the marking script (see journal(File)), for instance,
+     * after the JVM running the script has died. Submissions with results in the journal are not marked again, reports
+     * are generated from the results in the journal. Results for the remaining submissions are appended to the journal.
+     * If all submissions are in the journal, this only regenerates the reports.
+     * @param journal the journal file, if it does not exist, a new journal is created
+     * @return this builder
+     */
+    public MarkingScriptBuilder resume(File journal) {
+        Preconditions.checkNotNull(journal);
+        this.journalFile = journal;
+        this.resume = true;
+        return this;
+    }
+
+    /**
+     * Set a wall-clock time budget for marking each submission. When the budget is exhausted, the running check is aborted,
+     * processes it has started are killed, and the remaining checks are not run. Those checks are reported as aborted, i.e.,
+     * they must be marked manually. Timeouts for single checks can be set with @Marking(timeout=..).
+     * @param seconds the time budget in seconds, 0 means no budget
+     * @return this builder
+     */
+    public MarkingScriptBuilder timeoutPerSubmission(long seconds) {
+        Preconditions.checkArgument(seconds>=0,"timeout must not be negative");
+        this.timeoutPerSubmission = seconds;
+        return this;
+    }
+
+    /**
+     * Run up to the given number of independent checks of a submission at the same time. Checks are independent unless
+     * one requires the other (directly or indirectly), see Marking::requires. Only checks annotated with ConcurrencySafe
+     * (e.g., static checks of the POM or of the project structure) are run at the same time as other checks, checks that are
+     * not annotated or annotated with ExclusiveAccess (e.g., checks running mvn) have exclusive access to the submission.
+     * Checks are then run on threads other than the
+     * thread invoking the action set with beforeMarkingEachProjectDo, so the submission cannot be injected into a thread-confined
+     * variable, and when marking several submissions at the same time (see parallelism(int)), also not into a static field.
+     * Using forked worker JVMs avoids both problems, see forkWorkers(int).
+     * @param parallelism the max number of checks run at the same time
+     * @return this builder
+     */
+    public MarkingScriptBuilder checkParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism>0,"parallelism must be positive");
+        this.checkParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * When marking submissions in parallel or in forked worker JVMs, start marking the submissions with the highest estimated
+     * cost first, so that a large submission started last does not delay the end of marking. The time it takes to mark
+     * each submission is recorded in the cost model, and saved when marking has finished.
+     * Reports are still generated in the order in which submissions have been set.
+     * @param costModel the model used to estimate the cost of marking submissions
+     * @return this builder
+     */
+    public MarkingScriptBuilder scheduleLongestFirst(CostModel costModel) {
+        Preconditions.checkNotNull(costModel);
+        this.costModel = costModel;
+        return this;
+    }
+
+    /**
+     * Instead of marking all submissions, mark a random sample of submissions in this JVM, one after another, and print
+     * a profile ranking checks by their mean and 95th percentile wall time, including how often checks started mvn or java
+     * child processes, and the estimated time to mark all submissions with the parallelism set (or the number of worker JVMs).
+     * Nothing is reported, and neither a journal nor incremental results are recorded.
+     * Hooks are performed as when marking, except for hooks to be performed after marking each submission, as this is done
+     * after reporting.
+     * @param sampleSize the number of submissions to mark
+     * @return this builder
+     */
+    public MarkingScriptBuilder profile(int sampleSize) {
+        Preconditions.checkArgument(sampleSize>0,"sample size must be positive");
+        this.profileSampleSize = sampleSize;
+        return this;
+    }
+
+    /**
+     * Only mark the submissions in one shard of the submissions set, in order to split marking across several machines
+     * without coordination. Submissions are assigned to shards by a stable hash of the names of their folders, so each
+     * machine can use the same script and submissions. Use a journal for each shard, and ShardMerger to combine
+     * the results of all shards.
+     * @param index the index of the shard to mark, between 0 and count-1
+     * @param count the number of shards
+     * @return this builder
+     */
+    public MarkingScriptBuilder shard(int index, int count) {
+        Preconditions.checkArgument(count>0,"the number of shards must be positive");
+        Preconditions.checkArgument(index>=0 && index<count,"the shard index must be between 0 and " + (count-1));
+        this.shardIndex = index;
+        this.shardCount = count;
+        return this;
+    }
+
+    /**
+     * Run as a daemon watching a drop folder, instead of marking the submissions set. Submission folders already in the
+     * drop folder are marked first, then submissions are marked and reported whenever they are added or changed,
+     * once there has been no change for a quiet period (DEFAULT_QUIET_PERIOD_IN_MILLIS). The marking scheme is compiled
+     * only once, and caches (see incremental(File)) are kept warm. run() returns when the thread running it is interrupted.
+     * Reports must not be written into the drop folder. Journals and cohort reporters cannot be used when watching a drop folder.
+     * @param dropFolder the folder containing submission folders
+     * @return this builder
+     */
+    public MarkingScriptBuilder watch(File dropFolder) {
+        return watch(dropFolder,DEFAULT_QUIET_PERIOD_IN_MILLIS);
+    }
+
+    // watch a drop folder, submissions are marked when there have been no changes for the quiet period
+    public MarkingScriptBuilder watch(File dropFolder, long quietPeriodInMillis) {
+        Preconditions.checkArgument(dropFolder!=null && dropFolder.isDirectory(),"drop folder must be an existing folder");
+        Preconditions.checkArgument(quietPeriodInMillis>=0,"quiet period must not be negative");
+        this.dropFolder = dropFolder;
+        this.quietPeriodInMillis = quietPeriodInMillis;
+        return this;
+    }
+
+    // the shard (between 0 and count-1) a submission belongs to
+    public static int getShard(File submission, int count) {
+        return Hashing.consistentHash(Hashing.murmur3_32().hashString(submission.getName(),StandardCharsets.UTF_8),count);
+    }
+
     public void run() throws Exception {
-        Preconditions.checkState(this.submissions!=null,"submissions to mark must be set");
         Preconditions.checkState(this.markingScheme!=null,"marking scheme must be set");
-        Preconditions.checkState(!this.reporterFactories.isEmpty(),"at least one reporter must be set");
 
+        if (this.processGovernor!=null) {
+            OS.setGovernor(this.processGovernor);
+        }
+
+        String workerPort = System.getProperty(ForkedMarkingWorkers.WORKER_PORT_PROPERTY);
+        if (workerPort!=null) {
+            runAsWorker(Integer.parseInt(workerPort));
+            return;
+        }
+
+        Preconditions.checkState(this.submissions!=null || this.dropFolder!=null,"submissions to mark or a drop folder to watch must be set");
+        Preconditions.checkState(!this.reporterFactories.isEmpty() || !this.cohortReporters.isEmpty() || this.profileSampleSize>0,"at least one reporter must be set");
+
+        configureLogging();
+
+        this.plan = MarkingPlan.compile(markingScheme,this.checkParallelism);
+        if (this.resultCache!=null) {
+            this.markingSchemeFingerprint = Fingerprints.of(markingScheme);
+        }
+
+        if (this.profileSampleSize>0) {
+            profile();
+            return;
+        }
+
+        if (this.dropFolder!=null) {
+            watch();
+            return;
+        }
+
+        if (this.journalFile!=null) {
+            this.journal = new MarkingJournal(this.journalFile,this.resume);
+        }
+        try {
+            beforeMarkingAllProjects.run();
+            Map<String,Double> maxMarks = new TreeMap<>();
+            for (MarkingTestExecutionListener.AssignedMark mark:this.plan.getMarks()) {
+                maxMarks.put(mark.name,mark.marks < 0 ? 0 : mark.marks);
+            }
+            for (CohortReporter cohortReporter:this.cohortReporters) {
+                cohortReporter.startCohort(Collections.unmodifiableMap(maxMarks));
+            }
+            if (this.forkedWorkers>0) {
+                // worker JVMs compile their own plans
+                try (ForkedMarkingWorkers workers = new ForkedMarkingWorkers(this.forkedWorkers,getWorkerMainClassAndArgs(),this.workerJvmArgs)) {
+                    workers.onMarked(this::recordDuration);
+                    markAndReport(markInWorkers(workers),true);
+                }
+            }
+            else if (this.executor==null && this.parallelism==1) {
+                // submissions are marked one after another by this thread, so results can be streamed to reporters
+                this.streamRecords = true;
+                markAndReport((projectFolder,checks,failedChecks) -> CompletableFuture.supplyAsync(() -> markInProcess(projectFolder,checks,failedChecks),Runnable::run),false);
+            }
+            else {
+                markInParallel();
+            }
+            if (this.costModel!=null) {
+                this.costModel.save();
+            }
+            for (CohortReporter cohortReporter:this.cohortReporters) {
+                cohortReporter.finishCohort();
+            }
+            afterMarkingAllProjects.run();
+        }
+        finally {
+            if (this.journal!=null) {
+                this.journal.close();
+            }
+        }
+    }
+
+    private void watch() throws Exception {
+        Preconditions.checkState(this.journalFile==null,"a journal cannot be used when watching a drop folder");
+        Preconditions.checkState(this.cohortReporters.isEmpty(),"cohort reporters cannot be used when watching a drop folder");
+        try (SubmissionWatcher watcher = new SubmissionWatcher(this.dropFolder,this.quietPeriodInMillis)) {
+            beforeMarkingAllProjects.run();
+            if (this.forkedWorkers>0) {
+                try (ForkedMarkingWorkers workers = new ForkedMarkingWorkers(this.forkedWorkers,getWorkerMainClassAndArgs(),this.workerJvmArgs)) {
+                    watch(watcher,markInWorkers(workers));
+                }
+            }
+            else {
+                this.streamRecords = true;
+                watch(watcher,(projectFolder,checks,failedChecks) -> CompletableFuture.supplyAsync(() -> markInProcess(projectFolder,checks,failedChecks),Runnable::run));
+            }
+            afterMarkingAllProjects.run();
+        }
+    }
+
+    // mark submissions in the drop folder, and then new or changed submissions until interrupted
+    private void watch(SubmissionWatcher watcher, Marker marker) {
+        LOGGER.info("Watching drop folder " + this.dropFolder.getAbsolutePath());
+        List<File> projectFolders = watcher.getSubmissions();
+        try {
+            while (true) {
+                for (File projectFolder:projectFolders) {
+                    LOGGER.info("Marking submission " + projectFolder.getName());
+                    try {
+                        report(projectFolder,markIncrementally(marker,projectFolder).get());
+                    }
+                    catch (ExecutionException x) {
+                        // the daemon keeps running, the submission is marked again when it changes
+                        LOGGER.error("Marking submission " + projectFolder.getName() + " has failed",x.getCause());
+                    }
+                }
+                projectFolders = watcher.take();
+            }
+        }
+        catch (InterruptedException x) {
+            LOGGER.info("Stopped watching drop folder " + this.dropFolder.getAbsolutePath());
+        }
+        catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    private void profile() {
+        List<File> projectFolders = getProjectFolders();
+        List<File> sample = new ArrayList<>(projectFolders);
+        Collections.shuffle(sample);
+        sample = sample.subList(0,Math.min(this.profileSampleSize,sample.size()));
+        MarkingProfile profile = new MarkingProfile();
+        beforeMarkingAllProjects.run();
+        for (File projectFolder:sample) {
+            LOGGER.info("Profiling marking of submission " + projectFolder.getName());
+            long start = System.currentTimeMillis();
+            List<MarkingResultRecord> results = mark(this.plan,projectFolder);
+            profile.add(projectFolder,results,System.currentTimeMillis()-start);
+        }
+        afterMarkingAllProjects.run();
+        profile.print(System.out,projectFolders.size(),this.forkedWorkers>0 ? this.forkedWorkers : this.parallelism);
+    }
+
+    private void configureLogging() {
         if (this.configureLogging) {
             System.out.println("Configuring logging");
             Configurator.initialize(new DefaultConfiguration());
             Configurator.setRootLevel(this.logLevel);
         }
+    }
 
-        beforeMarkingAllProjects.run();
-        for (File projectFolder:submissions)   {
-            if (projectFolder.isDirectory()) {
-                beforeMarkingEachProject.accept(projectFolder);
-                // junit boilerplate code
-                LauncherDiscoveryRequest request = LauncherDiscoveryRequestBuilder
-                    .request()
-                    .selectors(selectClass(markingScheme)).build();
-                Launcher launcher = LauncherFactory.create();
-                MarkingTestExecutionListener listener = new MarkingTestExecutionListener() ;
-                launcher.registerTestExecutionListeners(listener);
-                launcher.execute(request);
-                List<MarkingResultRecord> results = listener.getResults();
-                for (Function<File,Reporter> reporterFactory:reporterFactories) {
-                    Reporter reporter = reporterFactory.apply(projectFolder);
-                    reporter.generateReport(results);
+    private void markInParallel() throws Exception {
+        ExecutorService executor = this.executor;
+        Semaphore permits = null;
+        if (executor==null && this.virtualThreads) {
+            executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            if (executor==null) {
+                LOGGER.warn("Virtual threads are not supported by this JVM, using a pool of platform threads instead");
+            }
+            else {
+                // virtual threads are not pooled, the parallelism is enforced by the tasks
+                permits = new Semaphore(this.parallelism);
+            }
+        }
+        if (executor==null) {
+            executor = Executors.newFixedThreadPool(this.parallelism,new ThreadFactoryBuilder().setNameFormat("yamf-marking-%d").build());
+        }
+        try {
+            ExecutorService executor2 = executor;
+            Semaphore permits2 = permits;
+            markAndReport((projectFolder,checks,failedChecks) -> CompletableFuture.supplyAsync(() -> {
+                if (permits2==null) {
+                    return markInProcess(projectFolder,checks,failedChecks);
                 }
-                afterMarkingEachProject.accept(projectFolder);
+                permits2.acquireUninterruptibly();
+                try {
+                    return markInProcess(projectFolder,checks,failedChecks);
+                }
+                finally {
+                    permits2.release();
+                }
+            },executor2),true);
+        }
+        finally {
+            if (executor!=this.executor) {
+                executor.shutdownNow();
             }
         }
-        afterMarkingAllProjects.run();
+    }
+
+    // the submission folders to be marked, i.e. the folders in the shard marked
+    private List<File> getProjectFolders() {
+        List<File> projectFolders = Stream.of(submissions)
+            .filter(File::isDirectory)
+            .filter(projectFolder -> this.shardCount==1 || getShard(projectFolder,this.shardCount)==this.shardIndex)
+            .collect(Collectors.toList());
+        if (this.shardCount>1) {
+            LOGGER.info("Marking shard " + this.shardIndex + " of " + this.shardCount + ", " + projectFolders.size() + " submission(s) in shard");
+        }
+        return projectFolders;
+    }
+
+    // marks a submission, runs only the checks with the given names, or all checks if checks is null,
+    // failed checks are the names of checks not run that are known to have failed (e.g. from stored results)
+    @FunctionalInterface
+    private interface Marker {
+        CompletableFuture<List<MarkingResultRecord>> mark(File projectFolder, Set<String> checks, Set<String> failedChecks);
+    }
+
+    // schedule marking of all submissions (all at once if eager is true, or one by one otherwise),
+    // and report in the order in which submissions have been set
+    private void markAndReport(Marker marker, boolean eager) throws Exception {
+        List<File> projectFolders = getProjectFolders();
+        Map<File,Future<List<MarkingResultRecord>>> futures = new HashMap<>();
+        if (eager) {
+            List<File> schedule = this.costModel==null ? projectFolders : this.costModel.sortByCost(projectFolders);
+            for (File projectFolder:schedule) {
+                futures.put(projectFolder,markAndRecord(marker,projectFolder));
+            }
+        }
+        for (int i=0;i<projectFolders.size();i++) {
+            Future<List<MarkingResultRecord>> future = eager ? futures.get(projectFolders.get(i)) : markAndRecord(marker,projectFolders.get(i));
+            List<MarkingResultRecord> results = null;
+            try {
+                results = future.get();
+            }
+            catch (ExecutionException x) {
+                if (x.getCause() instanceof Exception) {
+                    throw (Exception)x.getCause();
+                }
+                throw x;
+            }
+            report(projectFolders.get(i),results);
+        }
+    }
+
+    // if a journal is used, reuse results recorded in the journal, and record new results
+    private CompletableFuture<List<MarkingResultRecord>> markAndRecord(Marker marker, File projectFolder) {
+        if (this.journal==null) {
+            return markIncrementally(marker,projectFolder);
+        }
+        List<MarkingResultRecord> recordedResults = this.journal.get(projectFolder);
+        if (recordedResults!=null) {
+            LOGGER.info("Results for submission " + projectFolder.getName() + " found in journal, submission will not be re-marked");
+            return CompletableFuture.completedFuture(recordedResults);
+        }
+        return markIncrementally(marker,projectFolder).thenApply(results -> {
+            try {
+                this.journal.append(projectFolder,results);
+            }
+            catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+            return results;
+        });
+    }
+
+    // if marking incrementally, reuse stored results if possible, and store new results
+    private CompletableFuture<List<MarkingResultRecord>> markIncrementally(Marker marker, File projectFolder) {
+        if (this.resultCache==null) {
+            return marker.mark(projectFolder,null,Collections.emptySet());
+        }
+        String submissionFingerprint = null;
+        try {
+            submissionFingerprint = Fingerprints.of(projectFolder);
+        }
+        catch (IOException x) {
+            CompletableFuture<List<MarkingResultRecord>> future = new CompletableFuture<>();
+            future.completeExceptionally(x);
+            return future;
+        }
+
+        Set<String> checks = null; // null means all checks
+        Set<String> failedChecks = new HashSet<>();
+        List<MarkingResultRecord> storedResults = new ArrayList<>();
+        MarkingResultCache.Entry entry = this.forceRemarking.test(projectFolder) ? null : this.resultCache.get(projectFolder);
+        if (entry!=null && entry.submissionFingerprint.equals(submissionFingerprint) &&
+            (entry.markingSchemeFingerprint.equals(this.markingSchemeFingerprint) || this.reuseResultsAfterSchemeChanges)) {
+            checks = new HashSet<>(this.plan.getCheckNames());
+            for (MarkingResultRecord record:entry.results) {
+                if (this.plan.getCheckNames().contains(record.getName()) && !this.forcedChecks.contains(record.getName())) {
+                    storedResults.add(record);
+                    checks.remove(record.getName());
+                    if (!record.isSuccess()) {
+                        // checks re-marked that require this check are aborted, as if the check had just been run
+                        failedChecks.add(record.getName());
+                    }
+                }
+            }
+            if (checks.isEmpty()) {
+                LOGGER.info("Results for submission " + projectFolder.getName() + " are up to date, submission will not be re-marked");
+                return CompletableFuture.completedFuture(storedResults);
+            }
+            LOGGER.info("Re-marking checks for submission " + projectFolder.getName() + ": " + checks);
+        }
+
+        String submissionFingerprint2 = submissionFingerprint;
+        return marker.mark(projectFolder,checks,failedChecks).thenApply(results -> {
+            List<MarkingResultRecord> mergedResults = new ArrayList<>(storedResults);
+            mergedResults.addAll(results);
+            Collections.sort(mergedResults,Comparator.comparing(MarkingResultRecord::getName));
+            try {
+                this.resultCache.put(projectFolder,new MarkingResultCache.Entry(submissionFingerprint2,this.markingSchemeFingerprint,mergedResults));
+            }
+            catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
+            return Collections.unmodifiableList(mergedResults);
+        });
+    }
+
+    // mark submissions in worker JVMs, if a worker dies while marking a submission, the checks run are aborted
+    // and must be marked manually, so that other submissions are still marked and reported
+    private Marker markInWorkers(ForkedMarkingWorkers workers) {
+        return (projectFolder,checks,failedChecks) -> workers.submit(projectFolder,checks,failedChecks).exceptionally(x -> {
+            if (!(x instanceof ForkedMarkingWorkers.WorkerFailedException)) {
+                throw x instanceof CompletionException ? (CompletionException)x : new CompletionException(x);
+            }
+            List<MarkingResultRecord> results = new ArrayList<>();
+            for (MarkingTestExecutionListener.AssignedMark mark:this.plan.getMarks()) {
+                if (checks==null || checks.contains(mark.name)) {
+                    results.add(MarkingResultRecord.aborted(mark,x));
+                }
+            }
+            return Collections.unmodifiableList(results);
+        });
+    }
+
+    private void runAsWorker(int port) throws Exception {
+        configureLogging();
+        LOGGER.info("Running as worker JVM");
+        // the plan is compiled before the first submission is received, and is reused for all submissions sent to this worker
+        this.plan = MarkingPlan.compile(markingScheme,this.checkParallelism);
+        ForkedMarkingWorkers.serve(port,(projectFolder,checks,failedChecks) -> mark(getPlan(checks),projectFolder,failedChecks,record -> {}));
+        // the rest of the marking script must not be executed in worker JVMs
+        System.exit(0);
+    }
+
+    private List<String> getWorkerMainClassAndArgs() {
+        if (this.workerMainClass!=null) {
+            return Collections.singletonList(this.workerMainClass.getName());
+        }
+        // the command used to start this JVM (main class or jar, and arguments), arguments containing spaces are not supported
+        String command = System.getProperty("sun.java.command");
+        Preconditions.checkState(command!=null && !command.trim().isEmpty(),"cannot detect main class for worker JVMs, set it with workerMainClass()");
+        List<String> mainClassAndArgs = new ArrayList<>();
+        String[] tokens = command.trim().split(" ");
+        if (tokens[0].endsWith(".jar")) {
+            mainClassAndArgs.add("-jar");
+        }
+        mainClassAndArgs.addAll(Arrays.asList(tokens));
+        return mainClassAndArgs;
+    }
+
+    // get the plan to run some checks, or all checks if checks is null
+    private MarkingPlan getPlan(Set<String> checks) {
+        return checks==null ? this.plan : this.filteredPlans.computeIfAbsent(checks,this.plan::filter);
+    }
+
+    // mark a submission in this JVM, and record the time it took if all checks have been run
+    private List<MarkingResultRecord> markInProcess(File projectFolder, Set<String> checks, Set<String> failedChecks) {
+        long start = System.currentTimeMillis();
+        List<MarkingResultRecord> results = null;
+        if (this.streamRecords && checks==null) {
+            results = markAndStream(projectFolder);
+        }
+        else {
+            results = mark(getPlan(checks),projectFolder,failedChecks,record -> {});
+        }
+        if (checks==null) {
+            recordDuration(projectFolder,System.currentTimeMillis()-start);
+        }
+        return results;
+    }
+
+    // mark a submission, and pass results to streaming reporters as soon as checks finish
+    private List<MarkingResultRecord> markAndStream(File projectFolder) {
+        List<Reporter> reporters = createReporters(projectFolder);
+        List<StreamingReporter> streamingReporters = reporters.stream()
+            .filter(reporter -> reporter instanceof StreamingReporter)
+            .map(reporter -> (StreamingReporter)reporter)
+            .collect(Collectors.toList());
+        this.liveReporters.put(projectFolder,reporters);
+        boolean marked = false;
+        try {
+            for (StreamingReporter reporter:streamingReporters) {
+                safely(() -> reporter.onSubmissionStart(projectFolder),"Error starting report for submission " + projectFolder.getName());
+            }
+            List<MarkingResultRecord> results = mark(this.plan,projectFolder,Collections.emptySet(),record -> {
+                for (StreamingReporter reporter:streamingReporters) {
+                    // checks may finish at the same time if they are run concurrently
+                    synchronized (reporter) {
+                        safely(() -> reporter.onRecord(record),"Error reporting result of check " + record.getName());
+                    }
+                }
+            });
+            marked = true;
+            return results;
+        }
+        finally {
+            // reporters are finished (e.g. files are closed) even if marking has failed, the submission is then not reported
+            for (StreamingReporter reporter:streamingReporters) {
+                safely(() -> reporter.onSubmissionEnd(projectFolder),"Error finishing report for submission " + projectFolder.getName());
+            }
+            if (!marked) {
+                this.liveReporters.remove(projectFolder);
+            }
+        }
+    }
+
+    // reporting errors are logged, so that a failing reporter does not prevent other reporters from running
+    static void safely(Runnable reporting, String errorMessage) {
+        try {
+            reporting.run();
+        }
+        catch (Exception x) {
+            LOGGER.error(errorMessage,x);
+        }
+    }
+
+    private void recordDuration(File projectFolder, long durationInMillis) {
+        if (this.costModel!=null) {
+            this.costModel.recordDuration(projectFolder,durationInMillis);
+        }
+    }
+
+    private List<MarkingResultRecord> mark(MarkingPlan plan, File projectFolder) {
+        return mark(plan,projectFolder,Collections.emptySet(),record -> {});
+    }
+
+    private List<MarkingResultRecord> mark(MarkingPlan plan, File projectFolder, Set<String> failedChecks, Consumer<MarkingResultRecord> onRecord) {
+        beforeMarkingEachProject.accept(projectFolder);
+        // a new context for each submission, this also discards actions memoized while marking the previous submission
+        try (SubmissionContext context = new SubmissionContext(projectFolder)) {
+            return plan.execute(context,this.timeoutPerSubmission,failedChecks,onRecord);
+        }
+    }
+
+    private List<Reporter> createReporters(File projectFolder) {
+        return reporterFactories.stream().map(reporterFactory -> reporterFactory.apply(projectFolder)).collect(Collectors.toList());
+    }
+
+    private void report(File projectFolder, List<MarkingResultRecord> results) {
+        // streaming reporters that have received results while the submission was marked have already finished
+        List<Reporter> liveReporters = this.liveReporters.remove(projectFolder);
+        List<Reporter> reporters = liveReporters==null ? createReporters(projectFolder) : liveReporters;
+        for (Reporter reporter:reporters) {
+            if (reporter instanceof StreamingReporter) {
+                if (liveReporters==null) {
+                    StreamingReporter streamingReporter = (StreamingReporter)reporter;
+                    safely(() -> streamingReporter.onSubmissionStart(projectFolder),"Error starting report for submission " + projectFolder.getName());
+                    for (MarkingResultRecord record:results) {
+                        safely(() -> streamingReporter.onRecord(record),"Error reporting result of check " + record.getName());
+                    }
+                    safely(() -> streamingReporter.onSubmissionEnd(projectFolder),"Error finishing report for submission " + projectFolder.getName());
+                }
+            }
+            else {
+                safely(() -> reporter.generateReport(results),"Error reporting results for submission " + projectFolder.getName());
+            }
+        }
+        for (CohortReporter cohortReporter:this.cohortReporters) {
+            safely(() -> cohortReporter.addSubmission(projectFolder,results),"Error adding results for submission " + projectFolder.getName() + " to cohort report");
+        }
+        afterMarkingEachProject.accept(projectFolder);
     }
 
 }
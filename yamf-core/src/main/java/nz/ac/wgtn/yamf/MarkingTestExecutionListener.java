@@ -2,7 +2,6 @@ package nz.ac.wgtn.yamf;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.junit.platform.engine.TestDescriptor;
 import org.junit.platform.engine.TestExecutionResult;
 import org.junit.platform.engine.TestSource;
 import org.junit.platform.engine.reporting.ReportEntry;
@@ -10,18 +9,34 @@ import org.junit.platform.engine.support.descriptor.MethodSource;
 import org.junit.platform.launcher.TestExecutionListener;
 import org.junit.platform.launcher.TestIdentifier;
 import org.junit.platform.launcher.TestPlan;
-import java.lang.reflect.Method;
+import nz.ac.wgtn.yamf.commons.OS;
+import nz.ac.wgtn.yamf.commons.ProcessResources;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 /**
  * Listener for test execution, records results and associated marks extracted from annotations.
+ * Also records the resources used by each check, listeners are notified by the thread running the check.
+ * The invocations of parameterised and repeated checks are recorded together, when the container of the invocations has finished.
  * @author jens dietrich
  */
 public class MarkingTestExecutionListener implements TestExecutionListener {
 
     private static final Logger LOGGER = LogManager.getLogger("marking");
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
 
-    public static class AssignedMark {
+    // wall time and thread CPU time (in nanos, -1 if not supported) when a check started
+    private static class StartTimes {
+        long wallTime = System.nanoTime();
+        long cpuTime = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    public static class AssignedMark implements Serializable {
+        private static final long serialVersionUID = 1L;
         double marks = 0;
         String name = null;
         boolean mustBeMarkedManually = false;
@@ -34,6 +49,11 @@ public class MarkingTestExecutionListener implements TestExecutionListener {
             this.manualMarkingInstructions = manualMarkingInstructions;
         }
 
+        // records read from journals or received from worker JVMs share check names
+        private Object readResolve() {
+            return new AssignedMark(marks,name==null ? null : name.intern(),mustBeMarkedManually,manualMarkingInstructions);
+        }
+
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
@@ -61,18 +81,44 @@ public class MarkingTestExecutionListener implements TestExecutionListener {
         }
     }
 
-    private List<MarkingResultRecord> results = new ArrayList<>();
+    private List<MarkingResultRecord> results = Collections.synchronizedList(new ArrayList<>());
+    private MarkingPlan plan = null;
+    private MarkingExecution execution = null;
+    private Consumer<MarkingResultRecord> onRecord = record -> {};
+    private Map<TestIdentifier,StartTimes> startTimes = new ConcurrentHashMap<>();
+    private Attachments.Scope attachments = new Attachments.Scope();
+    // the executions bound to the threads running tests before they were started, restored when the tests finish
+    private Map<TestIdentifier,Optional<MarkingExecution>> previousExecutions = new ConcurrentHashMap<>();
+    // records of the invocations of parameterised and repeated checks running, keyed by the unique id of their container
+    private Map<String,List<MarkingResultRecord>> invocations = new ConcurrentHashMap<>();
+
+    public MarkingTestExecutionListener() {
+    }
+
+    // use the marks compiled into a plan instead of extracting them from annotations for each test
+    public MarkingTestExecutionListener(MarkingPlan plan) {
+        this.plan = plan;
+    }
+
+    // also record the outcomes of checks in an execution, and associate it with the threads running checks
+    MarkingTestExecutionListener(MarkingPlan plan, MarkingExecution execution) {
+        this.plan = plan;
+        this.execution = execution;
+    }
+
+    // notified when the result of a check has been recorded, this is called by the thread running the check
+    void onRecord(Consumer<MarkingResultRecord> onRecord) {
+        this.onRecord = onRecord;
+    }
 
     @Override
     public void testPlanExecutionStarted(TestPlan testPlan) {
         LOGGER.info("Tests started");
-        Attachments.reset();
     }
 
     @Override
     public void testPlanExecutionFinished(TestPlan testPlan) {
         LOGGER.info("Tests finished");
-        Attachments.reset();
     }
 
     @Override
@@ -104,82 +150,138 @@ public class MarkingTestExecutionListener implements TestExecutionListener {
     public void executionSkipped(TestIdentifier testIdentifier, String reason) {
         if (isTestMethod(testIdentifier)) {
             LOGGER.info("check " + getTestIdentfierName(testIdentifier) + " skipped, reason: " + reason);
-            Attachments.startTest(testIdentifier); // needs to be checked
+            if (execution!=null && plan!=null) {
+                AssignedMark mark = plan.getMark(testIdentifier);
+                if (mark!=null) {
+                    execution.checkFinished(mark.name,false);
+                }
+            }
         }
     }
 
     @Override
     public void executionStarted(TestIdentifier testIdentifier) {
-        if (isTestMethod(testIdentifier)) {
+        if (execution!=null) {
+            // listeners are notified by the thread running the test, e.g. a worker thread of junit shared by several submissions
+            previousExecutions.put(testIdentifier,Optional.ofNullable(execution.bind()));
+        }
+        if (isTestMethod(testIdentifier) && testIdentifier.isContainer()) {
+            LOGGER.info("running check: " + getTestIdentfierName(testIdentifier));
+            invocations.put(testIdentifier.getUniqueId(),Collections.synchronizedList(new ArrayList<>()));
+        }
+        else if (isTestMethod(testIdentifier)) {
             LOGGER.info("running check: " + getTestIdentfierName(testIdentifier));
-            Attachments.startTest(testIdentifier);
+            attachments.startTest(testIdentifier);
+            OS.startResourceAccounting();
+            startTimes.put(testIdentifier,new StartTimes());
         }
     }
 
     @Override
     public void executionFinished(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
-        if (isTestMethod(testIdentifier)) {
+        try {
+            recordResult(testIdentifier,testExecutionResult);
+        }
+        finally {
+            Optional<MarkingExecution> previousExecution = previousExecutions.remove(testIdentifier);
+            if (previousExecution!=null) {
+                MarkingExecution.restore(previousExecution.orElse(null));
+            }
+        }
+    }
+
+    private void recordResult(TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+        if (isTestMethod(testIdentifier) && testIdentifier.isContainer()) {
             LOGGER.info("\tTest " + getTestIdentfierName(testIdentifier) + " finished");
+            List<MarkingResultRecord> invocations = this.invocations.remove(testIdentifier.getUniqueId());
+            try {
+                AssignedMark extractedMark = extractMark(testIdentifier);
+                if (extractedMark != null && invocations != null) {
+                    synchronized (invocations) {
+                        record(MarkingResultRecord.aggregate(extractedMark, testIdentifier, testExecutionResult, invocations));
+                    }
+                }
+            } catch (Exception x) {
+                LOGGER.error("Exception extracting mark from test " + testIdentifier.getDisplayName(), x);
+            }
+        }
+        else if (isTestMethod(testIdentifier)) {
+            LOGGER.info("\tTest " + getTestIdentfierName(testIdentifier) + " finished");
+            StartTimes started = startTimes.remove(testIdentifier);
+            ProcessResources childProcessResources = OS.stopResourceAccounting();
+            Collection<Attachment> attachments = this.attachments.endTest(testIdentifier);
             try {
                 AssignedMark extractedMark = extractMark(testIdentifier);
                 if (extractedMark != null) {
                     MarkingResultRecord record = new MarkingResultRecord(extractedMark, testIdentifier, testExecutionResult);
-                    Collection<Attachment> attachments = Attachments.getAttachments(testIdentifier);
                     record.setAttachments(attachments);
-                    results.add(record);
-
-                    LOGGER.info("\tstatus: " + record.getResultStatus());
+                    recordResources(record,started,childProcessResources);
+                    List<MarkingResultRecord> invocations = testIdentifier.getParentId().map(this.invocations::get).orElse(null);
+                    if (invocations != null) {
+                        // an invocation of a parameterised or repeated check, recorded when all invocations have finished
+                        invocations.add(record);
+                    }
+                    else {
+                        record(record);
+                    }
                 }
             } catch (Exception x) {
                 LOGGER.error("Exception extracting mark from test " + testIdentifier.getDisplayName(), x);
             }
-            finally {
-                Attachments.endTest(testIdentifier);
+        }
+    }
+
+    private void record(MarkingResultRecord record) {
+        results.add(record);
+        if (execution!=null) {
+            execution.checkFinished(record.getName(),record.isSuccess());
+        }
+        LOGGER.info("\tstatus: " + record.getResultStatus());
+        onRecord.accept(record);
+    }
+
+    private void recordResources(MarkingResultRecord record, StartTimes started, ProcessResources childProcessResources) {
+        if (started!=null) {
+            record.setWallTimeInMillis((System.nanoTime()-started.wallTime)/1_000_000);
+            if (started.cpuTime>=0) {
+                record.setCpuTimeInMillis((THREADS.getCurrentThreadCpuTime()-started.cpuTime)/1_000_000);
             }
         }
+        if (childProcessResources!=null) {
+            record.setChildProcessCpuTimeInMillis(childProcessResources.getCpuTimeInMillis());
+            record.setChildProcessPeakRssInKB(childProcessResources.getPeakRssInKB());
+            record.setChildProcessCommands(childProcessResources.getCommands());
+        }
     }
 
     @Override
     public void reportingEntryPublished(TestIdentifier testIdentifier, ReportEntry entry) {
     }
 
-    // use reflection to extract annotation
+    // look up the mark in the plan, or use reflection to extract annotation if there is no plan
     private AssignedMark extractMark (TestIdentifier testIdentifier) throws ClassNotFoundException, NoSuchMethodException {
-        if (testIdentifier.getType() == TestDescriptor.Type.TEST && testIdentifier.getSource().isPresent()) {
+        if (plan!=null) {
+            AssignedMark mark = plan.getMark(testIdentifier);
+            if (mark==null) {
+                LOGGER.warn("Cannot extract marking info from test " + testIdentifier.getDisplayName());
+            }
+            return mark;
+        }
+        if (testIdentifier.getSource().isPresent()) {
             TestSource source = testIdentifier.getSource().get();
             if (source instanceof MethodSource) {
-                MethodSource methodSource = (MethodSource)source;
-                Class clazz = Class.forName(methodSource.getClassName());
-                String methodParameterTypes = methodSource.getMethodParameterTypes();
-                if (methodParameterTypes==null || methodParameterTypes.equals("")) { // test methods dont have parameters
-                    LOGGER.debug("Parameterised methods are not yet supported");
-                }
-                Method method = clazz.getMethod(methodSource.getMethodName());
-
-                Marking markingAnnotation = method.getAnnotation(Marking.class);
-                if (markingAnnotation ==null) {
-                    LOGGER.warn("No @Mark annotation found in test " + testIdentifier.getDisplayName());
-                    return null;
-                }
-                else {
-                    ManualMarkingIsRequired manualMarkingAnnotation = method.getAnnotation(ManualMarkingIsRequired.class);
-                    AssignedMark mark = new AssignedMark(
-                            markingAnnotation.marks(),
-                            markingAnnotation.name(),
-                            manualMarkingAnnotation!=null,
-                            manualMarkingAnnotation==null?null:manualMarkingAnnotation.instructions());
-                    return mark;
-                }
+                return MarkingPlan.extractMark((MethodSource)source);
             }
-
         }
         LOGGER.warn("Cannot extract marking info from test " + testIdentifier.getDisplayName());
         return null;
     }
 
     public List<MarkingResultRecord> getResults () {
-        Collections.sort(this.results, Comparator.comparing(MarkingResultRecord::getName));
-        return Collections.unmodifiableList(this.results);
+        synchronized (this.results) {
+            Collections.sort(this.results, Comparator.comparing(MarkingResultRecord::getName));
+            return Collections.unmodifiableList(new ArrayList<>(this.results));
+        }
     }
 
 }
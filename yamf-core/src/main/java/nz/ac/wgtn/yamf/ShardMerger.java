@@ -0,0 +1,173 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import nz.ac.wgtn.yamf.reporting.CohortReporter;
+import nz.ac.wgtn.yamf.reporting.Reporter;
+import nz.ac.wgtn.yamf.reporting.StreamingReporter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.File;
+import java.util.*;
+import java.util.function.Function;
+import static nz.ac.wgtn.yamf.MarkingScriptBuilder.safely;
+
+/**
+ * Utility to combine the results of marking submissions in shards (see MarkingScriptBuilder::shard), recorded in a journal for each shard,
+ * into one set of reports and cohort reports.
+ * Submissions are identified by the names of their folders, as shards may have been marked on different machines.
+ * Merging fails if a submission has been marked in several shards, or if submissions have been set and some of them have not been marked,
+ * unless inconsistencies are ignored. Then duplicated results are taken from the last journal.
+ * Like in MarkingScriptBuilder, reporting errors are logged, so that a failing reporter does not prevent other reporters from running.
+ * @author jens dietrich
+ */
+public class ShardMerger {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+
+    private List<File> journals = new ArrayList<>();
+    private File[] submissions = null;
+    private List<Function<File, Reporter>> reporterFactories = new ArrayList<>();
+    private List<CohortReporter> cohortReporters = new ArrayList<>();
+    private boolean ignoreInconsistencies = false;
+
+    // set when merging
+    private Set<String> missingSubmissions = new TreeSet<>();
+    private Set<String> duplicateSubmissions = new TreeSet<>();
+
+    // the journals of the shards
+    public ShardMerger journals(File... journals) {
+        this.journals.addAll(Arrays.asList(journals));
+        return this;
+    }
+
+    // the submissions expected in the shards, used to detect missing submissions, and for reporting
+    public ShardMerger submissions(File[] submissions) {
+        this.submissions = submissions;
+        return this;
+    }
+
+    public ShardMerger reportTo(Function<File,Reporter> reporter) {
+        this.reporterFactories.add(reporter);
+        return this;
+    }
+
+    public ShardMerger reportCohortTo(CohortReporter reporter) {
+        Preconditions.checkNotNull(reporter);
+        this.cohortReporters.add(reporter);
+        return this;
+    }
+
+    // if set, missing and duplicated submissions are logged, but do not fail merging
+    public ShardMerger ignoreInconsistencies(boolean value) {
+        this.ignoreInconsistencies = value;
+        return this;
+    }
+
+    public void merge() throws Exception {
+        Preconditions.checkState(!this.journals.isEmpty(),"journals to merge must be set");
+        Preconditions.checkState(!this.reporterFactories.isEmpty() || !this.cohortReporters.isEmpty(),"at least one reporter must be set");
+
+        // submission names -> folders, in the order in which submissions have been set, or of names
+        Map<String,File> folders = new LinkedHashMap<>();
+        Map<String,List<MarkingResultRecord>> results = new HashMap<>();
+        Map<String,File> journalsBySubmission = new HashMap<>();
+        this.missingSubmissions.clear();
+        this.duplicateSubmissions.clear();
+
+        if (this.submissions!=null) {
+            for (File submission:this.submissions) {
+                if (submission.isDirectory()) {
+                    folders.put(submission.getName(),submission);
+                }
+            }
+        }
+        Map<String,File> foldersInJournals = new TreeMap<>();
+        for (File journal:this.journals) {
+            for (Map.Entry<String,List<MarkingResultRecord>> entry:MarkingJournal.read(journal).entrySet()) {
+                File folder = new File(entry.getKey());
+                File previousJournal = journalsBySubmission.put(folder.getName(),journal);
+                if (previousJournal!=null) {
+                    LOGGER.warn("Submission " + folder.getName() + " found in journals " + previousJournal.getAbsolutePath() + " and " + journal.getAbsolutePath());
+                    this.duplicateSubmissions.add(folder.getName());
+                }
+                foldersInJournals.put(folder.getName(),folder);
+                results.put(folder.getName(),entry.getValue());
+            }
+        }
+
+        if (this.submissions==null) {
+            folders.putAll(foldersInJournals);
+        }
+        else {
+            for (String name:folders.keySet()) {
+                if (!results.containsKey(name)) {
+                    LOGGER.warn("Submission " + name + " not found in any journal");
+                    this.missingSubmissions.add(name);
+                }
+            }
+            for (String name:foldersInJournals.keySet()) {
+                if (!folders.containsKey(name)) {
+                    LOGGER.warn("Submission " + name + " found in journal " + journalsBySubmission.get(name).getAbsolutePath() + " has not been set, and will not be reported");
+                }
+            }
+        }
+
+        if (!this.ignoreInconsistencies && !(this.missingSubmissions.isEmpty() && this.duplicateSubmissions.isEmpty())) {
+            throw new IllegalStateException("Cannot merge shards, missing submissions: " + this.missingSubmissions + ", submissions in several shards: " + this.duplicateSubmissions);
+        }
+
+        Map<String,Double> maxMarks = new TreeMap<>();
+        for (List<MarkingResultRecord> records:results.values()) {
+            for (MarkingResultRecord record:records) {
+                maxMarks.put(record.getName(),record.getMaxMark());
+            }
+        }
+        for (CohortReporter cohortReporter:this.cohortReporters) {
+            safely(() -> cohortReporter.startCohort(Collections.unmodifiableMap(maxMarks)),"Error starting cohort report");
+        }
+        for (Map.Entry<String,File> folder:folders.entrySet()) {
+            List<MarkingResultRecord> records = results.get(folder.getKey());
+            if (records!=null) {
+                report(folder.getValue(),records);
+            }
+        }
+        for (CohortReporter cohortReporter:this.cohortReporters) {
+            try {
+                cohortReporter.finishCohort();
+            }
+            catch (Exception x) {
+                LOGGER.error("Error finishing cohort report",x);
+            }
+        }
+    }
+
+    private void report(File projectFolder, List<MarkingResultRecord> results) {
+        for (Function<File,Reporter> reporterFactory:this.reporterFactories) {
+            Reporter reporter = reporterFactory.apply(projectFolder);
+            if (reporter instanceof StreamingReporter) {
+                StreamingReporter streamingReporter = (StreamingReporter)reporter;
+                safely(() -> streamingReporter.onSubmissionStart(projectFolder),"Error starting report for submission " + projectFolder.getName());
+                for (MarkingResultRecord record:results) {
+                    safely(() -> streamingReporter.onRecord(record),"Error reporting result of check " + record.getName());
+                }
+                safely(() -> streamingReporter.onSubmissionEnd(projectFolder),"Error finishing report for submission " + projectFolder.getName());
+            }
+            else {
+                safely(() -> reporter.generateReport(results),"Error reporting results for submission " + projectFolder.getName());
+            }
+        }
+        for (CohortReporter cohortReporter:this.cohortReporters) {
+            safely(() -> cohortReporter.addSubmission(projectFolder,results),"Error adding results for submission " + projectFolder.getName() + " to cohort report");
+        }
+    }
+
+    // the names of the submissions set but not found in any journal, available after merging
+    public Set<String> getMissingSubmissions() {
+        return Collections.unmodifiableSet(missingSubmissions);
+    }
+
+    // the names of the submissions found in several journals, available after merging
+    public Set<String> getDuplicateSubmissions() {
+        return Collections.unmodifiableSet(duplicateSubmissions);
+    }
+}
@@ -0,0 +1,163 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The context of the submission being marked. A new context is created each time a marking plan is executed, i.e.
+ * for each submission. The context can be used to memoize the results of expensive actions, such as running "mvn test":
+ * identical calls within the marking of one submission reuse the result of the first call, or rethrow the exception
+ * thrown by the first call (including exceptions signalling failed assumptions, i.e. aborted checks).
+ * Actions that are interrupted (e.g., when a check times out) are not memoized.
+ * The context is injected into parameters of type SubmissionContext of check methods and fixtures (e.g., methods annotated with
+ * @BeforeAll), so that marking schemes do not need to store the submission in a static field. This allows several submissions
+ * to be marked at the same time in one JVM. The context also provides a scratch directory deleted when the submission has been marked.
+ * @author jens dietrich
+ */
+public class SubmissionContext implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+
+    private File submission = null;
+    private ConcurrentMap<List<Object>,FutureTask<Object>> memoizedResults = new ConcurrentHashMap<>();
+    private File scratchDirectory = null;
+
+    /**
+     * Create a new context.
+     * @param submission the submission folder, may be null if unknown
+     */
+    public SubmissionContext(File submission) {
+        this.submission = submission;
+    }
+
+    /**
+     * Get the context of the submission being marked by the current thread.
+     * @return the context, or null if the current thread is not running checks executed by a marking plan (e.g. when checks are run in an IDE)
+     */
+    public static SubmissionContext current() {
+        MarkingExecution execution = MarkingExecution.current();
+        return execution==null ? null : execution.getSubmissionContext();
+    }
+
+    /**
+     * Memoize the result of an action in the context of the submission being marked by the current thread.
+     * If there is no such context, the action is simply performed.
+     * @param action the name of the action
+     * @param computation the computation to be memoized
+     * @param args the arguments of the action, used together with the name as key, arrays are compared by content
+     * @return the result of the computation
+     * @throws Exception the exception thrown by the computation
+     */
+    public static <T> T memoize(String action, Callable<T> computation, Object... args) throws Exception {
+        SubmissionContext context = current();
+        return context==null ? computation.call() : context.memoized(action,computation,args);
+    }
+
+    /**
+     * Discard the memoized results of an action in the context of the submission being marked by the current thread,
+     * e.g. because another action has changed the state these results depend on. If there is no such context, nothing happens.
+     * @param action the name of the action
+     */
+    public static void invalidate(String action) {
+        SubmissionContext context = current();
+        if (context!=null) {
+            context.forget(action);
+        }
+    }
+
+    // the submission folder, may be null
+    public File getSubmission() {
+        return submission;
+    }
+
+    /**
+     * Get a directory checks can use to write temporary files (e.g., to copy the submission before modifying it).
+     * The directory is created when this method is first called, and deleted with its content when the submission has been marked.
+     * @return the scratch directory
+     * @throws IOException if the directory cannot be created
+     */
+    public synchronized File getScratchDirectory() throws IOException {
+        if (scratchDirectory==null) {
+            String prefix = "yamf-" + (submission==null ? "" : submission.getName() + "-");
+            scratchDirectory = Files.createTempDirectory(prefix).toFile();
+        }
+        return scratchDirectory;
+    }
+
+    // add an attachment to the check being run by the current thread
+    public void attach(Attachment attachment) {
+        Attachments.add(attachment);
+    }
+
+    // discard memoized results, and delete the scratch directory
+    @Override
+    public synchronized void close() {
+        memoizedResults.clear();
+        if (scratchDirectory!=null) {
+            try {
+                MoreFiles.deleteRecursively(scratchDirectory.toPath(),RecursiveDeleteOption.ALLOW_INSECURE);
+            }
+            catch (IOException x) {
+                LOGGER.warn("Cannot delete scratch directory " + scratchDirectory.getAbsolutePath(),x);
+            }
+            scratchDirectory = null;
+        }
+    }
+
+    // discard the memoized results of an action, computations in progress are not affected but their results are not kept
+    public void forget(String action) {
+        memoizedResults.keySet().removeIf(key -> key.get(0).equals(action));
+    }
+
+    /**
+     * Memoize the result of an action in this context.
+     * @param action the name of the action
+     * @param computation the computation to be memoized
+     * @param args the arguments of the action, used together with the name as key, arrays are compared by content
+     * @return the result of the computation
+     * @throws Exception the exception thrown by the computation
+     */
+    public <T> T memoized(String action, Callable<T> computation, Object... args) throws Exception {
+        List<Object> key = new ArrayList<>();
+        key.add(action);
+        for (Object arg:args) {
+            key.add(arg instanceof Object[] ? Arrays.asList((Object[])arg) : arg);
+        }
+        FutureTask<Object> task = new FutureTask<>((Callable<Object>)computation);
+        FutureTask<Object> memoizedTask = memoizedResults.putIfAbsent(key,task);
+        if (memoizedTask==null) {
+            // the first call performs the computation, concurrent identical calls wait for it
+            memoizedTask = task;
+            task.run();
+            if (Thread.currentThread().isInterrupted()) {
+                // the computation may have been cut short, e.g. processes may have been killed when a check timed out
+                memoizedResults.remove(key,task);
+            }
+        }
+        try {
+            return (T)memoizedTask.get();
+        }
+        catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof InterruptedException) {
+                memoizedResults.remove(key,memoizedTask);
+            }
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw x;
+        }
+    }
+}
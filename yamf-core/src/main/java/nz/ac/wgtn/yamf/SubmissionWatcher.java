@@ -0,0 +1,151 @@
+package nz.ac.wgtn.yamf;
+
+import com.google.common.base.Preconditions;
+import nz.ac.wgtn.yamf.commons.Fingerprints;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a drop folder containing submission folders, and reports submissions that are new or have changed, once they are stable.
+ * Changes usually arrive in bursts of file events (e.g. when a submission is copied or unzipped into the drop folder), a submission
+ * is considered stable if there has been no event for it for a quiet period.
+ * Folders in Fingerprints.DEFAULT_EXCLUDED_FOLDERS (i.e. build output written when marking) and hidden folders are not watched.
+ * @author jens dietrich
+ */
+class SubmissionWatcher implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+
+    private Path dropFolder = null;
+    private long quietPeriodInNanos = 0;
+    private WatchService watchService = null;
+    private Map<WatchKey,Path> watchedFolders = new HashMap<>();
+    private Map<Path,Long> changedSubmissions = new LinkedHashMap<>(); // submission folders -> time of the last event
+
+    SubmissionWatcher(File dropFolder, long quietPeriodInMillis) throws IOException {
+        Preconditions.checkArgument(dropFolder.isDirectory(),"drop folder must be an existing folder: " + dropFolder.getAbsolutePath());
+        Preconditions.checkArgument(quietPeriodInMillis>=0,"quiet period must not be negative");
+        this.dropFolder = dropFolder.toPath().toAbsolutePath();
+        this.quietPeriodInNanos = TimeUnit.MILLISECONDS.toNanos(quietPeriodInMillis);
+        this.watchService = this.dropFolder.getFileSystem().newWatchService();
+        register(this.dropFolder);
+    }
+
+    // the submissions currently in the drop folder
+    List<File> getSubmissions() {
+        File[] files = dropFolder.toFile().listFiles(file -> file.isDirectory() && !file.isHidden());
+        List<File> submissions = files==null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        Collections.sort(submissions);
+        return submissions;
+    }
+
+    // wait until at least one new or changed submission is stable, and return the stable submissions
+    List<File> take() throws InterruptedException, IOException {
+        while (true) {
+            List<File> stableSubmissions = removeStableSubmissions();
+            if (!stableSubmissions.isEmpty()) {
+                return stableSubmissions;
+            }
+            WatchKey key = null;
+            if (changedSubmissions.isEmpty()) {
+                key = watchService.take();
+            }
+            else {
+                long lastEvent = Collections.max(changedSubmissions.values());
+                key = watchService.poll(Math.max(1,lastEvent+quietPeriodInNanos-System.nanoTime()),TimeUnit.NANOSECONDS);
+            }
+            while (key!=null) {
+                processEvents(key);
+                key = watchService.poll();
+            }
+        }
+    }
+
+    private List<File> removeStableSubmissions() {
+        long now = System.nanoTime();
+        List<File> stableSubmissions = new ArrayList<>();
+        Iterator<Map.Entry<Path,Long>> iterator = changedSubmissions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path,Long> entry = iterator.next();
+            if (now-entry.getValue()>=quietPeriodInNanos) {
+                iterator.remove();
+                File submission = entry.getKey().toFile();
+                if (submission.isDirectory()) {
+                    stableSubmissions.add(submission);
+                }
+                else {
+                    LOGGER.info("Submission " + submission.getName() + " has been removed");
+                }
+            }
+        }
+        return stableSubmissions;
+    }
+
+    private void processEvents(WatchKey key) throws IOException {
+        Path folder = watchedFolders.get(key);
+        for (WatchEvent<?> event:key.pollEvents()) {
+            if (event.kind()==StandardWatchEventKinds.OVERFLOW) {
+                // events have been lost, treat all submissions as changed
+                LOGGER.warn("Events lost watching " + dropFolder + ", all submissions will be marked");
+                for (File submission:getSubmissions()) {
+                    changedSubmissions.put(submission.toPath().toAbsolutePath(),System.nanoTime());
+                }
+                continue;
+            }
+            if (folder==null) {
+                continue;
+            }
+            Path path = folder.resolve((Path)event.context());
+            if (isExcluded(path)) {
+                continue;
+            }
+            if (event.kind()==StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path,LinkOption.NOFOLLOW_LINKS)) {
+                register(path);
+            }
+            if (!path.getParent().equals(dropFolder) || Files.isDirectory(path) || event.kind()==StandardWatchEventKinds.ENTRY_DELETE) {
+                // files directly in the drop folder are not submissions
+                Path submission = dropFolder.resolve(dropFolder.relativize(path).getName(0));
+                changedSubmissions.remove(submission); // keep the map ordered by the time of the last event
+                changedSubmissions.put(submission,System.nanoTime());
+            }
+        }
+        if (!key.reset()) {
+            watchedFolders.remove(key);
+        }
+    }
+
+    private boolean isExcluded(Path path) {
+        for (Path name:dropFolder.relativize(path)) {
+            if (Fingerprints.DEFAULT_EXCLUDED_FOLDERS.contains(name.toString()) || name.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // watch a folder and its sub folders
+    private void register(Path folder) throws IOException {
+        Files.walkFileTree(folder,new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(dropFolder) && isExcluded(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                WatchKey key = dir.register(watchService,StandardWatchEventKinds.ENTRY_CREATE,StandardWatchEventKinds.ENTRY_MODIFY,StandardWatchEventKinds.ENTRY_DELETE);
+                watchedFolders.put(key,dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
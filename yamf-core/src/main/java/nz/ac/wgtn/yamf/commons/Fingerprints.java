@@ -0,0 +1,101 @@
+package nz.ac.wgtn.yamf.commons;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Utilities to compute content fingerprints (SHA-256 hashes) of submissions and marking schemes.
+ * @author jens dietrich
+ */
+public class Fingerprints {
+
+    // folders that are created when submissions are marked (e.g. by running mvn), and are therefore ignored by default
+    public static final Set<String> DEFAULT_EXCLUDED_FOLDERS = Stream.of("target").collect(Collectors.toSet());
+
+    /**
+     * Compute a fingerprint of a folder, based on the relative paths and the content of all files in this folder.
+     * Folders with names in DEFAULT_EXCLUDED_FOLDERS are ignored.
+     * @param folder the folder
+     * @return a fingerprint
+     * @throws IOException
+     */
+    public static String of(File folder) throws IOException {
+        return of(folder,path -> DEFAULT_EXCLUDED_FOLDERS.contains(path.getFileName().toString()));
+    }
+
+    /**
+     * Compute a fingerprint of a folder, based on the relative paths and the content of all files in this folder.
+     * @param folder the folder
+     * @param excludeFolder a filter for (sub)folders to be ignored
+     * @return a fingerprint
+     * @throws IOException
+     */
+    public static String of(File folder, Predicate<Path> excludeFolder) throws IOException {
+        Preconditions.checkArgument(folder.isDirectory(),"Cannot compute fingerprint, not a folder: " + folder.getAbsolutePath());
+        Hasher hasher = Hashing.sha256().newHasher();
+        hash(folder,folder,excludeFolder,hasher);
+        return hasher.hash().toString();
+    }
+
+    private static void hash(File baseFolder, File folder, Predicate<Path> excludeFolder, Hasher hasher) throws IOException {
+        File[] files = folder.listFiles();
+        if (files==null) {
+            return;
+        }
+        // sort to make fingerprints independent of the order in which the file system lists files
+        Arrays.sort(files);
+        for (File file:files) {
+            if (file.isDirectory()) {
+                if (!excludeFolder.test(file.toPath())) {
+                    hash(baseFolder,file,excludeFolder,hasher);
+                }
+            }
+            else {
+                hasher.putString(Files.relativize(file,baseFolder),StandardCharsets.UTF_8);
+                hasher.putLong(file.length());
+                hasher.putBytes(com.google.common.io.Files.asByteSource(file).hash(Hashing.sha256()).asBytes());
+            }
+        }
+    }
+
+    /**
+     * Compute a fingerprint of a class, based on its byte code, and the byte code of its nested classes.
+     * Note that changes in other classes used by this class are not reflected in the fingerprint.
+     * @param clazz a class
+     * @return a fingerprint
+     * @throws IOException if the byte code of the class cannot be found
+     */
+    public static String of(Class clazz) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hash(clazz,hasher);
+        return hasher.hash().toString();
+    }
+
+    private static void hash(Class clazz, Hasher hasher) throws IOException {
+        String resource = "/" + clazz.getName().replace('.','/') + ".class";
+        try (InputStream in = clazz.getResourceAsStream(resource)) {
+            if (in==null) {
+                throw new IOException("Cannot find byte code of class " + clazz.getName());
+            }
+            hasher.putString(clazz.getName(),StandardCharsets.UTF_8);
+            hasher.putBytes(ByteStreams.toByteArray(in));
+        }
+        Class[] nestedClasses = clazz.getDeclaredClasses();
+        Arrays.sort(nestedClasses,(c1,c2) -> c1.getName().compareTo(c2.getName()));
+        for (Class nestedClass:nestedClasses) {
+            hash(nestedClass,hasher);
+        }
+    }
+}
@@ -1,30 +1,230 @@
 package nz.ac.wgtn.yamf.commons;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.zeroturnaround.exec.ProcessExecutor;
 import org.zeroturnaround.exec.ProcessResult;
+import org.zeroturnaround.exec.StartedProcess;
 import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
 
 /**
  * Utilities to interact with the OS, in particular to run commands.
+ * Commands are run in child processes, the thread running a command waits for the process to terminate.
+ * If this thread is interrupted, or if the processes started by this thread are killed with killProcesses(Thread),
+ * the child process and its descendants are destroyed.
+ * The resources used by child processes can be accounted for by the thread running commands, see startResourceAccounting().
+ * Commands can be run by virtual threads, a thread waiting for a process does not hold any monitors.
+ * The processes running at the same time can be limited with a governor, see setGovernor(ProcessGovernor).
  * author jens dietrich
  */
 public class OS {
 
+    public static final long SAMPLING_INTERVAL_IN_MILLIS = 100;
+    private static final File PROC = new File("/proc");
+    private static final long CLOCK_TICKS_PER_SECOND = 100; // USER_HZ, 100 on virtually all Linux systems
+
+    // processes started by exe, by the thread waiting for them
+    private static final Map<Thread,Set<Process>> RUNNING_PROCESSES = new ConcurrentHashMap<>();
+
+    // resources used by processes started by the current thread
+    private static final ThreadLocal<ProcessResources> RESOURCES = new ThreadLocal<>();
+
+    // limits processes running at the same time, or null if there are no limits
+    private static volatile ProcessGovernor governor = null;
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("yamf-process-sampler").setDaemon(true).build()
+    );
+
+    // resources of a running process tree, by pid, and the CPU time of the root process including terminated descendants
+    private static class ProcessSample {
+        Map<Long,Long> cpuTicks = new ConcurrentHashMap<>();
+        volatile long rootCpuTicks = 0;
+        Map<Long,Long> peakRssInKB = new ConcurrentHashMap<>();
+    }
+
     public static ProcessResult exe(String... command) throws Exception {
-        return new ProcessExecutor()
+        return execute(new ProcessExecutor()
             .readOutput(true)
-            .command(command)
-            .execute();
+            .command(command));
     }
 
     public static ProcessResult exe(File workingDir, String... command) throws Exception {
-        return new ProcessExecutor()
+        return execute(new ProcessExecutor()
             .readOutput(true)
             .directory(workingDir)
-            .command(command)
-            .execute();
+            .command(command));
+    }
+
+    private static ProcessResult execute(ProcessExecutor executor) throws Exception {
+        List<String> command = new ArrayList<>(executor.getCommand());
+        ProcessGovernor governor = OS.governor;
+        if (governor==null) {
+            return execute(executor,command);
+        }
+        // wait for a slot, the thread is not blocked in a monitor and can be interrupted while waiting
+        ProcessGovernor.Permit permit = governor.acquire(ProcessGovernor.getProcessType(command));
+        try {
+            return execute(executor.command(governor.getCommand(permit,command)),command);
+        }
+        finally {
+            governor.release(permit);
+        }
+    }
+
+    // run a command, the command to be reported may differ from the command run (e.g., when prefixed with taskset)
+    private static ProcessResult execute(ProcessExecutor executor, List<String> command) throws Exception {
+        StartedProcess process = executor.start();
+        Set<Process> processes = RUNNING_PROCESSES.computeIfAbsent(Thread.currentThread(),thread -> ConcurrentHashMap.newKeySet());
+        processes.add(process.getProcess());
+        ProcessResources resources = RESOURCES.get();
+        ProcessSample sample = new ProcessSample();
+        ScheduledFuture<?> sampling = null;
+        if (resources!=null && PROC.isDirectory()) {
+            sampling = SAMPLER.scheduleAtFixedRate(() -> sample(process.getProcess(),sample),0,SAMPLING_INTERVAL_IN_MILLIS,TimeUnit.MILLISECONDS);
+        }
+        try {
+            return process.getFuture().get();
+        }
+        catch (InterruptedException x) {
+            kill(process.getProcess());
+            throw x;
+        }
+        catch (ExecutionException x) {
+            if (x.getCause() instanceof Exception) {
+                throw (Exception)x.getCause();
+            }
+            throw x;
+        }
+        finally {
+            if (sampling!=null) {
+                sampling.cancel(false);
+            }
+            if (resources!=null) {
+                // terminated descendants are included in the CPU time of the root, running ones were sampled individually
+                long cpuTicks = Math.max(sample.rootCpuTicks,sample.cpuTicks.values().stream().mapToLong(Long::longValue).sum());
+                long peakRss = sample.peakRssInKB.values().stream().mapToLong(Long::longValue).max().orElse(0);
+                resources.add(command.isEmpty() ? "" : new File(command.get(0)).getName(),cpuTicks * 1000 / CLOCK_TICKS_PER_SECOND,peakRss);
+            }
+            processes.remove(process.getProcess());
+            if (processes.isEmpty()) {
+                RUNNING_PROCESSES.remove(Thread.currentThread(),processes);
+            }
+        }
+    }
+
+    /**
+     * Set a governor limiting the number of processes started with exe running at the same time, and the memory they use.
+     * @param governor the governor, or null if processes are not limited
+     */
+    public static void setGovernor(ProcessGovernor governor) {
+        OS.governor = governor;
+    }
+
+    public static ProcessGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Start accounting for the resources used by processes started by the current thread with exe.
+     * @return the resources, updated whenever a process started by the current thread terminates
+     */
+    public static ProcessResources startResourceAccounting() {
+        ProcessResources resources = new ProcessResources();
+        RESOURCES.set(resources);
+        return resources;
+    }
+
+    /**
+     * Stop accounting for the resources used by processes started by the current thread.
+     * @return the resources used since startResourceAccounting() was called, or null if it has not been called
+     */
+    public static ProcessResources stopResourceAccounting() {
+        ProcessResources resources = RESOURCES.get();
+        RESOURCES.remove();
+        return resources;
+    }
+
+    // sample the CPU time and peak RSS of a process and its descendants from /proc
+    private static void sample(Process process, ProcessSample sample) {
+        List<Long> pids = getPids(process);
+        for (long pid:pids) {
+            try {
+                // fields after the command name (in brackets, may contain spaces): state is field 3, utime, stime, cutime and cstime are fields 14-17
+                String stat = new String(Files.readAllBytes(Paths.get("/proc",String.valueOf(pid),"stat")));
+                String[] fields = stat.substring(stat.lastIndexOf(')')+2).split(" ");
+                long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+                sample.cpuTicks.merge(pid,ticks,Math::max);
+                if (pid==pids.get(0)) {
+                    sample.rootCpuTicks = Math.max(sample.rootCpuTicks,ticks + Long.parseLong(fields[13]) + Long.parseLong(fields[14]));
+                }
+                for (String line:Files.readAllLines(Paths.get("/proc",String.valueOf(pid),"status"))) {
+                    if (line.startsWith("VmHWM:")) {
+                        long peakRss = Long.parseLong(line.substring("VmHWM:".length()).replace("kB","").trim());
+                        sample.peakRssInKB.merge(pid,peakRss,Math::max);
+                    }
+                }
+            }
+            catch (Exception x) {
+                // the process may have terminated in the meantime
+            }
+        }
+    }
+
+    // the pids of a process and its descendants (descendants are only found if the JVM supports this, i.e. Java 9 or better)
+    private static List<Long> getPids(Process process) {
+        List<Long> pids = new ArrayList<>();
+        try {
+            // Process::pid and Process::descendants are only available in Java 9+, this project is compiled for Java 8
+            pids.add((Long)Process.class.getMethod("pid").invoke(process));
+            Method pid = Class.forName("java.lang.ProcessHandle").getMethod("pid");
+            ((Stream<?>)Process.class.getMethod("descendants").invoke(process)).forEach(descendant -> {
+                try {
+                    pids.add((Long)pid.invoke(descendant));
+                }
+                catch (Exception x) {}
+            });
+        }
+        catch (Exception x) {}
+        return pids;
+    }
+
+    /**
+     * Kill all processes started by a thread with exe that are still running, including their descendants.
+     * The thread waiting for those processes will then return from exe with the result of the killed process.
+     * @param thread the thread
+     */
+    public static void killProcesses(Thread thread) {
+        for (Process process:RUNNING_PROCESSES.getOrDefault(thread,Collections.emptySet())) {
+            kill(process);
+        }
+    }
+
+    /**
+     * Kill a process and its descendants (descendants are only killed if the JVM supports this, i.e. Java 9 or better).
+     * @param process the process
+     */
+    public static void kill(Process process) {
+        try {
+            // Process::descendants is only available in Java 9+, this project is compiled for Java 8
+            Method descendants = Process.class.getMethod("descendants");
+            Class processHandleClass = Class.forName("java.lang.ProcessHandle");
+            Method destroyForcibly = processHandleClass.getMethod("destroyForcibly");
+            ((Stream<?>)descendants.invoke(process)).forEach(descendant -> {
+                try {
+                    destroyForcibly.invoke(descendant);
+                }
+                catch (Exception x) {}
+            });
+        }
+        catch (Exception x) {}
+        process.destroyForcibly();
     }
 
 }
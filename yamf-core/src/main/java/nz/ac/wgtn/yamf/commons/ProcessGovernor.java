@@ -0,0 +1,278 @@
+package nz.ac.wgtn.yamf.commons;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the child processes started with OS::exe that run at the same time, see OS::setGovernor.
+ * Each process needs a CPU slot, and the estimated memory of its type (mvn, junit, java or other) from a memory budget.
+ * Threads starting processes wait until a slot and enough memory are available. A process is always started if no other
+ * process is running, even if its estimated memory exceeds the budget.
+ * Optionally, processes are pinned to cores with taskset (Linux only), so that each process runs on the core of its slot.
+ * If the governor is adaptive, the number of usable slots shrinks when the load average exceeds the number of processors
+ * or the available memory is low, and grows back (up to the number of slots set) when the load has dropped.
+ * @author jens dietrich
+ */
+public class ProcessGovernor {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+
+    public static final String MVN = "mvn";
+    public static final String JUNIT = "junit";
+    public static final String JAVA = "java";
+    public static final String OTHER = "other";
+
+    public static final long ADAPTATION_INTERVAL_IN_MILLIS = 5_000;
+    private static final double LOW_MEMORY_RATIO = 0.1; // of total memory
+
+    // a slot used by a running process
+    public static class Permit {
+        private int slot = 0;
+        private long memoryInMB = 0;
+        private Permit(int slot, long memoryInMB) {
+            this.slot = slot;
+            this.memoryInMB = memoryInMB;
+        }
+    }
+
+    // the configuration can be changed while processes are running, fields are guarded by the lock unless they are volatile or concurrent
+    private int cpuSlots = Runtime.getRuntime().availableProcessors();
+    private long memoryBudgetInMB = Long.MAX_VALUE;
+    private Map<String,Long> estimatedMemoryInMB = new ConcurrentHashMap<>();
+    private volatile boolean pinToCores = false;
+    private boolean adaptive = false;
+
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition released = lock.newCondition();
+    private BitSet usedSlots = new BitSet();
+    private long usedMemoryInMB = 0;
+    private int usableSlots = cpuSlots;
+    private ScheduledExecutorService adaptation = null;
+
+    public ProcessGovernor() {
+        estimatedMemoryInMB.put(MVN,1024L);
+        estimatedMemoryInMB.put(JUNIT,512L);
+        estimatedMemoryInMB.put(JAVA,512L);
+        estimatedMemoryInMB.put(OTHER,128L);
+    }
+
+    // the max number of processes running at the same time, the default is the number of processors
+    public ProcessGovernor cpuSlots(int cpuSlots) {
+        Preconditions.checkArgument(cpuSlots>0,"the number of CPU slots must be positive");
+        lock.lock();
+        try {
+            this.cpuSlots = cpuSlots;
+            this.usableSlots = cpuSlots;
+            released.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    // the memory that can be used by processes running at the same time, unlimited by default
+    public ProcessGovernor memoryBudgetInMB(long memoryBudgetInMB) {
+        Preconditions.checkArgument(memoryBudgetInMB>0,"memory budget must be positive");
+        lock.lock();
+        try {
+            this.memoryBudgetInMB = memoryBudgetInMB;
+            released.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    // the estimated memory used by processes of a type (MVN, JUNIT, JAVA or OTHER)
+    public ProcessGovernor estimatedMemoryInMB(String processType, long memoryInMB) {
+        Preconditions.checkArgument(estimatedMemoryInMB.containsKey(processType),"unknown process type: " + processType);
+        Preconditions.checkArgument(memoryInMB>=0,"estimated memory must not be negative");
+        this.estimatedMemoryInMB.put(processType,memoryInMB);
+        return this;
+    }
+
+    // pin processes to the core of their slot with taskset, ignored if taskset is not available
+    public ProcessGovernor pinToCores(boolean value) {
+        this.pinToCores = value && isTasksetAvailable();
+        if (value && !this.pinToCores) {
+            LOGGER.warn("taskset is not available, processes will not be pinned to cores");
+        }
+        return this;
+    }
+
+    // adapt the number of usable slots to the load average and available memory
+    public ProcessGovernor adaptive(boolean value) {
+        lock.lock();
+        try {
+            this.adaptive = value;
+            if (value && adaptation==null) {
+                adaptation = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("yamf-process-governor").setDaemon(true).build());
+                adaptation.scheduleWithFixedDelay(this::adapt,ADAPTATION_INTERVAL_IN_MILLIS,ADAPTATION_INTERVAL_IN_MILLIS,TimeUnit.MILLISECONDS);
+            }
+            else if (!value && adaptation!=null) {
+                adaptation.shutdownNow();
+                adaptation = null;
+                // all slots can be used again
+                usableSlots = cpuSlots;
+                released.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    // the type of a process, used to estimate its memory
+    public static String getProcessType(List<String> command) {
+        if (command.isEmpty()) {
+            return OTHER;
+        }
+        String executable = new File(command.get(0)).getName();
+        if (executable.equals("mvn") || executable.equals("mvnw") || executable.startsWith("mvn.")) {
+            return MVN;
+        }
+        if (executable.equals("java") || executable.equals("java.exe")) {
+            return command.stream().anyMatch(token -> token.contains("junit-platform-console")) ? JUNIT : JAVA;
+        }
+        return OTHER;
+    }
+
+    /**
+     * Wait until a process of a type can be started.
+     * @param processType the process type
+     * @return a permit, to be released when the process has terminated
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Permit acquire(String processType) throws InterruptedException {
+        long memory = estimatedMemoryInMB.getOrDefault(processType,estimatedMemoryInMB.get(OTHER));
+        lock.lockInterruptibly();
+        try {
+            while (!canStart(memory)) {
+                released.await();
+            }
+            int slot = usedSlots.nextClearBit(0);
+            usedSlots.set(slot);
+            usedMemoryInMB = usedMemoryInMB + memory;
+            return new Permit(slot,memory);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean canStart(long memory) {
+        if (usedSlots.isEmpty()) {
+            return true;
+        }
+        return usedSlots.cardinality()<usableSlots && usedMemoryInMB+memory<=memoryBudgetInMB;
+    }
+
+    public void release(Permit permit) {
+        lock.lock();
+        try {
+            usedSlots.clear(permit.slot);
+            usedMemoryInMB = usedMemoryInMB - permit.memoryInMB;
+            released.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // the command to run for a permit, prefixed with taskset if processes are pinned to cores
+    public List<String> getCommand(Permit permit, List<String> command) {
+        if (!pinToCores) {
+            return command;
+        }
+        int core = permit.slot % Runtime.getRuntime().availableProcessors();
+        List<String> pinnedCommand = new ArrayList<>();
+        pinnedCommand.add("taskset");
+        pinnedCommand.add("-c");
+        pinnedCommand.add(String.valueOf(core));
+        pinnedCommand.addAll(command);
+        return pinnedCommand;
+    }
+
+    // the number of processes that can currently run at the same time
+    public int getUsableSlots() {
+        lock.lock();
+        try {
+            return usableSlots;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void adapt() {
+        double loadAverage = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        int processors = Runtime.getRuntime().availableProcessors();
+        long[] memory = getMemoryInKB(); // total, available
+        boolean lowMemory = memory!=null && memory[1] < memory[0]*LOW_MEMORY_RATIO;
+        lock.lock();
+        try {
+            if (!adaptive) {
+                // adaptation has been switched off while sampling
+                return;
+            }
+            int previousUsableSlots = usableSlots;
+            if (lowMemory || loadAverage>processors) {
+                usableSlots = Math.max(1,usableSlots-1);
+            }
+            else if (loadAverage>=0 && loadAverage<processors*0.75 && usableSlots<cpuSlots) {
+                usableSlots = usableSlots+1;
+                released.signalAll();
+            }
+            if (usableSlots!=previousUsableSlots) {
+                LOGGER.info("Usable process slots changed from " + previousUsableSlots + " to " + usableSlots + " (load average: " + loadAverage + (lowMemory ? ", low memory" : "") + ")");
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // total and available memory from /proc/meminfo, or null if not available
+    private static long[] getMemoryInKB() {
+        try {
+            long[] memory = new long[]{-1,-1};
+            for (String line:Files.readAllLines(Paths.get("/proc/meminfo"))) {
+                if (line.startsWith("MemTotal:")) {
+                    memory[0] = Long.parseLong(line.substring("MemTotal:".length()).replace("kB","").trim());
+                }
+                else if (line.startsWith("MemAvailable:")) {
+                    memory[1] = Long.parseLong(line.substring("MemAvailable:".length()).replace("kB","").trim());
+                }
+            }
+            return memory[0]>0 && memory[1]>=0 ? memory : null;
+        }
+        catch (Exception x) {
+            return null;
+        }
+    }
+
+    private static boolean isTasksetAvailable() {
+        for (String folder:System.getenv().getOrDefault("PATH","").split(File.pathSeparator)) {
+            if (new File(folder,"taskset").canExecute()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
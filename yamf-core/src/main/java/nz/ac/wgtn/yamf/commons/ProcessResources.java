@@ -0,0 +1,40 @@
+package nz.ac.wgtn.yamf.commons;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resources used by child processes started with OS::exe, including their descendants.
+ * Resources are sampled from /proc while processes are running, so they are only available on Linux, and are approximate:
+ * CPU time consumed after the last sample (taken every SAMPLING_INTERVAL_IN_MILLIS) is not accounted for.
+ * @author jens dietrich
+ */
+public class ProcessResources {
+
+    private long cpuTimeInMillis = 0;
+    private long peakRssInKB = 0;
+    private List<String> commands = new ArrayList<>();
+
+    // add the resources of a finished process tree
+    synchronized void add(String command, long cpuTimeInMillis, long peakRssInKB) {
+        this.commands.add(command);
+        this.cpuTimeInMillis = this.cpuTimeInMillis + cpuTimeInMillis;
+        this.peakRssInKB = Math.max(this.peakRssInKB,peakRssInKB);
+    }
+
+    // the total CPU time (user and system) of all processes
+    public synchronized long getCpuTimeInMillis() {
+        return cpuTimeInMillis;
+    }
+
+    // the max resident set size of a single process
+    public synchronized long getPeakRssInKB() {
+        return peakRssInKB;
+    }
+
+    // the commands (executables) run
+    public synchronized List<String> getCommands() {
+        return Collections.unmodifiableList(new ArrayList<>(commands));
+    }
+}
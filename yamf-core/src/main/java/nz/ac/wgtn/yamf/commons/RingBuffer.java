@@ -0,0 +1,70 @@
+package nz.ac.wgtn.yamf.commons;
+
+import com.google.common.base.Preconditions;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Output stream keeping only the last bytes written to it, up to a fixed capacity.
+ * This can be used to capture the tail of the (possibly very large) output of processes, and to attach it to the
+ * results of checks without writing it to a file, e.g. new Attachment("console",buffer::openStream,"text/plain").
+ * Buffers are thread-safe.
+ * @author jens dietrich
+ */
+public class RingBuffer extends OutputStream {
+
+    private byte[] buffer = null;
+    private long count = 0; // the number of bytes written
+
+    public RingBuffer(int capacity) {
+        Preconditions.checkArgument(capacity>0,"capacity must be positive");
+        this.buffer = new byte[capacity];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        buffer[(int)(count % buffer.length)] = (byte)b;
+        count = count+1;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        Preconditions.checkPositionIndexes(off,off+len,b.length);
+        // only the last bytes can be kept
+        if (len>buffer.length) {
+            count = count+len-buffer.length;
+            off = off+len-buffer.length;
+            len = buffer.length;
+        }
+        int position = (int)(count % buffer.length);
+        int firstPart = Math.min(len,buffer.length-position);
+        System.arraycopy(b,off,buffer,position,firstPart);
+        System.arraycopy(b,off+firstPart,buffer,0,len-firstPart);
+        count = count+len;
+    }
+
+    // the bytes kept, in the order in which they have been written
+    public synchronized byte[] toByteArray() {
+        if (count<=buffer.length) {
+            byte[] bytes = new byte[(int)count];
+            System.arraycopy(buffer,0,bytes,0,bytes.length);
+            return bytes;
+        }
+        byte[] bytes = new byte[buffer.length];
+        int position = (int)(count % buffer.length);
+        System.arraycopy(buffer,position,bytes,0,buffer.length-position);
+        System.arraycopy(buffer,0,bytes,buffer.length-position,position);
+        return bytes;
+    }
+
+    // a stream reading a snapshot of the bytes kept
+    public InputStream openStream() {
+        return new ByteArrayInputStream(toByteArray());
+    }
+
+    // the number of bytes written but no longer kept
+    public synchronized long getDroppedByteCount() {
+        return Math.max(0,count-buffer.length);
+    }
+}
@@ -0,0 +1,52 @@
+package nz.ac.wgtn.yamf.commons;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Support for virtual threads, available in Java 21 and better.
+ * This project is compiled for Java 8, therefore virtual threads are created using reflection.
+ * @author jens dietrich
+ */
+public class VirtualThreads {
+
+    private static final ThreadFactory FACTORY = createFactory("yamf-virtual-");
+
+    // whether the JVM supports virtual threads
+    public static boolean isSupported() {
+        return FACTORY!=null;
+    }
+
+    /**
+     * Create an executor starting a new virtual thread for each task.
+     * @return the executor, or null if virtual threads are not supported
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (FACTORY==null) {
+            return null;
+        }
+        try {
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",ThreadFactory.class);
+            return (ExecutorService)newThreadPerTaskExecutor.invoke(null,FACTORY);
+        }
+        catch (Exception x) {
+            return null;
+        }
+    }
+
+    // Thread.ofVirtual().name(prefix,0).factory()
+    private static ThreadFactory createFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name",String.class,long.class).invoke(builder,prefix,0L);
+            return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+        }
+        catch (Exception x) {
+            // not available, or a preview feature that has not been enabled (Java 19 and 20)
+            return null;
+        }
+    }
+}
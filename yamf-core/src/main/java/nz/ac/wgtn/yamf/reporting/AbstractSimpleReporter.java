@@ -8,6 +8,7 @@ import java.util.function.Predicate;
 
 /**
  * Very simple plain file reporter.
+ * Subclasses can also stream results, using exportRecord for each record and exportSummary at the end.
  * @author jens dietrich
  */
 public abstract class AbstractSimpleReporter implements Reporter {
@@ -15,6 +16,10 @@ public abstract class AbstractSimpleReporter implements Reporter {
     protected boolean reportFailureAndErrorDetails = false;
     protected Predicate<StackTraceElement> stacktraceElementFilter = StackTraceFilters.DEFAULT;
 
+    // totals of streamed records
+    protected double marks = 0.0;
+    protected double maxMark = 0.0;
+
 
     public AbstractSimpleReporter(boolean reportFailureAndErrorDetails) {
         this.reportFailureAndErrorDetails = reportFailureAndErrorDetails;
@@ -41,45 +46,66 @@ public abstract class AbstractSimpleReporter implements Reporter {
         double marks = 0.0;
         double maxMark = 0.0;
         for (MarkingResultRecord record:results) {
-
             marks = marks + record.getMark();
             maxMark = maxMark + record.getMaxMark();
+            exportRecord(record,out);
+        }
+        exportSummary(marks,maxMark,out);
+    }
 
-            out.print(record.getName());
-            out.print("\t");
-            out.print(record.getMark() + " / " + record.getMaxMark());
-            out.print("\t");
-            out.print(record.getTestIdentifier());
-            out.print("\t");
+    protected void exportRecord(MarkingResultRecord record, PrintStream out) {
+        out.print(record.getName());
+        out.print("\t");
+        out.print(record.getMark() + " / " + record.getMaxMark());
+        out.print("\t");
+        out.print(record.getTestIdentifier());
+        out.print("\t");
+        out.print("wall time: " + record.getWallTimeInMillis() + "ms, cpu time: " + record.getCpuTimeInMillis() + "ms");
+        out.print("\t");
+        out.print("child processes cpu time: " + record.getChildProcessCpuTimeInMillis() + "ms, peak rss: " + record.getChildProcessPeakRssInKB() + "KB");
+        out.print("\t");
+
+        if (record.isManualMarkingRequired()) {
+            out.print("Manual marking is required !!!");
+        }
+        else {
+            out.print(record.getResultStatus());
 
-            if (record.isManualMarkingRequired()) {
-                out.print("Manual marking is required !!!");
-            }
-            else {
-                out.print(record.getResultStatus());
-
-                if (reportFailureAndErrorDetails) {
-                    if (record.hasThrowable()) {
-                        out.println();
-                        out.println("\tException detailed message:");
-                        out.println(record.getThrowable().getMessage());
-                        out.println();
-                        out.println("\tException stacktrace:");
-                        for (StackTraceElement stackTraceElement : record.getThrowable().getStackTrace()) {
-                            if (stacktraceElementFilter.test(stackTraceElement)) {
-                                out.println("\t" + stackTraceElement);
-                            }
-                        }
+            if (reportFailureAndErrorDetails) {
+                if (record.hasThrowable()) {
+                    out.println();
+                    out.println("\tException detailed message:");
+                    out.println(record.getThrowable().getMessage());
+                    if (record.getThrowable().getCause()!=null) {
+                        out.println("\tCaused by: " + record.getThrowable().getCause());
                     }
                     out.println();
+                    out.println("\tException stacktrace:");
+                    for (StackTraceElement stackTraceElement : record.getThrowable().getStackTrace()) {
+                        if (stacktraceElementFilter.test(stackTraceElement)) {
+                            out.println("\t" + stackTraceElement);
+                        }
+                    }
                 }
+                out.println();
             }
-
-            out.println();
         }
+
+        out.println();
+        out.flush();
+    }
+
+    protected void exportSummary(double marks, double maxMark, PrintStream out) {
         out.println();
         out.println("SUMMARY: " + marks + " / " + maxMark);
 
         out.println("====================================");
     }
+
+    // add a streamed record to the totals, and export it
+    protected void exportStreamedRecord(MarkingResultRecord record, PrintStream out) {
+        this.marks = this.marks + record.getMark();
+        this.maxMark = this.maxMark + record.getMaxMark();
+        exportRecord(record,out);
+    }
 }
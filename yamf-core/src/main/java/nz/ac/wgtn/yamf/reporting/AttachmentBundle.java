@@ -0,0 +1,114 @@
+package nz.ac.wgtn.yamf.reporting;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import nz.ac.wgtn.yamf.Attachment;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import java.io.*;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Content-addressed store for the attachments of a marking run, written to a compressed (zip) bundle.
+ * The content of each attachment is stored once under its hash (see Attachment::getContentHash), so identical files
+ * attached to several checks, or by several submissions, are only stored once. Reporters can then reference attachments
+ * by hash instead of inlining their content (see MSExcelReporter::referenceAttachmentsIn).
+ * A bundle is usually shared by the reporters of all submissions, and must be closed when marking has finished, this
+ * writes the index of the zip file. Bundles are thread-safe.
+ * @author jens dietrich
+ */
+public class AttachmentBundle implements AutoCloseable {
+
+    private static final Logger LOGGER = LogManager.getLogger("marking");
+    private static final String BLOB_FOLDER = "blobs/";
+
+    private File file = null;
+    private ZipOutputStream out = null;
+    private Set<String> hashes = new HashSet<>();
+    private long attachmentCount = 0;
+
+    /**
+     * Create a bundle, an existing file is replaced.
+     * @param file the bundle file
+     * @throws IOException
+     */
+    public AttachmentBundle(File file) throws IOException {
+        Preconditions.checkArgument(file!=null,"bundle file must be set");
+        this.file = file;
+        this.out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.out.setLevel(Deflater.BEST_SPEED);
+    }
+
+    /**
+     * Add an attachment to this bundle, its content is only stored if no attachment with the same content has been added before.
+     * @param attachment the attachment
+     * @return the content hash of the attachment
+     * @throws IOException
+     */
+    public String add(Attachment attachment) throws IOException {
+        String hash = attachment.getContentHash();
+        synchronized (this) {
+            Preconditions.checkState(out!=null,"bundle has already been closed");
+            attachmentCount = attachmentCount+1;
+            if (hashes.add(hash)) {
+                out.putNextEntry(new ZipEntry(getEntryName(hash)));
+                attachment.getContent().copyTo(out);
+                out.closeEntry();
+            }
+        }
+        return hash;
+    }
+
+    // the file this bundle is written to
+    public File getFile() {
+        return file;
+    }
+
+    // the number of distinct blobs stored
+    public synchronized int getBlobCount() {
+        return hashes.size();
+    }
+
+    // the number of attachments added
+    public synchronized long getAttachmentCount() {
+        return attachmentCount;
+    }
+
+    // the name of the zip entry with the content of a blob
+    public static String getEntryName(String hash) {
+        return BLOB_FOLDER + hash;
+    }
+
+    /**
+     * Read the content of a blob from a closed bundle.
+     * @param bundle the bundle file
+     * @param hash the content hash
+     * @return the content, or null if there is no blob with this hash
+     * @throws IOException
+     */
+    public static byte[] read(File bundle, String hash) throws IOException {
+        try (ZipFile zip = new ZipFile(bundle)) {
+            ZipEntry entry = zip.getEntry(getEntryName(hash));
+            if (entry==null) {
+                return null;
+            }
+            try (InputStream in = zip.getInputStream(entry)) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out!=null) {
+            out.close();
+            out = null;
+            LOGGER.info("Attachment bundle " + file.getAbsolutePath() + " written, " + hashes.size() + " distinct blob(s) for " + attachmentCount + " attachment(s)");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package nz.ac.wgtn.yamf.reporting;
+
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reporter producing a single report for all submissions, such as a gradebook with one row per submission.
+ * MarkingScriptBuilder calls startCohort before marking, addSubmission after each submission has been marked
+ * (on the thread running the script, in the order in which submissions have been set), and finishCohort at the end.
+ * @author jens dietrich
+ */
+public interface CohortReporter {
+
+    // the names of all checks, ordered by name, mapped to their max marks
+    void startCohort(Map<String,Double> maxMarks);
+
+    void addSubmission(File submission, List<MarkingResultRecord> results);
+
+    void finishCohort() throws IOException;
+}
@@ -2,14 +2,16 @@ package nz.ac.wgtn.yamf.reporting;
 
 import nz.ac.wgtn.yamf.MarkingResultRecord;
 
+import java.io.File;
 import java.io.PrintStream;
 import java.util.List;
 
 /**
  * Very simple reporter.
+ * Results are printed as checks finish, see StreamingReporter.
  * @author jens dietrich
  */
-public class ConsoleReporter extends AbstractSimpleReporter {
+public class ConsoleReporter extends AbstractSimpleReporter implements StreamingReporter {
 
     public ConsoleReporter() {
         super(true);
@@ -26,4 +28,22 @@ public class ConsoleReporter extends AbstractSimpleReporter {
         export(results,out);
         System.out.println("====================================");
     }
+
+    @Override
+    public void onSubmissionStart(File submission) {
+        System.out.println("====== MARKING SCRIPT RESULTS ======");
+        marks = 0.0;
+        maxMark = 0.0;
+    }
+
+    @Override
+    public void onRecord(MarkingResultRecord record) {
+        exportStreamedRecord(record,System.out);
+    }
+
+    @Override
+    public void onSubmissionEnd(File submission) {
+        exportSummary(marks,maxMark,System.out);
+        System.out.println("====================================");
+    }
 }
@@ -7,11 +7,13 @@ import java.util.List;
 
 /**
  * Very simple reporter writing to text files.
+ * Results are written as checks finish, see StreamingReporter.
  * @author jens dietrich
  */
-public class SimpleFileReporter extends AbstractSimpleReporter {
+public class SimpleFileReporter extends AbstractSimpleReporter implements StreamingReporter {
 
     private File file = null;
+    private PrintStream out = null; // used for streaming
 
     public SimpleFileReporter(boolean reportFailureAndErrorDetails,File file) {
         super(reportFailureAndErrorDetails);
@@ -35,4 +37,31 @@ public class SimpleFileReporter extends AbstractSimpleReporter {
             e.printStackTrace();
         }
     }
+
+    @Override
+    public void onSubmissionStart(File submission) {
+        try {
+            out = new PrintStream(new FileOutputStream(file));
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+        marks = 0.0;
+        maxMark = 0.0;
+    }
+
+    @Override
+    public void onRecord(MarkingResultRecord record) {
+        if (out!=null) {
+            exportStreamedRecord(record,out);
+        }
+    }
+
+    @Override
+    public void onSubmissionEnd(File submission) {
+        if (out!=null) {
+            exportSummary(marks,maxMark,out);
+            out.close();
+            out = null;
+        }
+    }
 }
@@ -0,0 +1,22 @@
+package nz.ac.wgtn.yamf.reporting;
+
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import java.io.File;
+
+/**
+ * Reporter receiving results as checks complete, instead of receiving all results when a submission has been marked.
+ * When submissions are marked one after another in the JVM running the marking script, records are passed to the
+ * reporter as soon as each check has finished (i.e. in the order in which checks finish). Otherwise (e.g. when marking
+ * submissions in parallel, or when results are reused from a previous run), the callbacks are invoked for all records of a
+ * submission when the submission is reported, in the order in which submissions have been set.
+ * Reporters implementing both Reporter and StreamingReporter are only used as streaming reporters by MarkingScriptBuilder.
+ * @author jens dietrich
+ */
+public interface StreamingReporter {
+
+    void onSubmissionStart(File submission);
+
+    void onRecord(MarkingResultRecord record);
+
+    void onSubmissionEnd(File submission);
+}
@@ -0,0 +1,89 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.Attachment;
+import nz.ac.wgtn.yamf.commons.RingBuffer;
+import nz.ac.wgtn.yamf.reporting.AttachmentBundle;
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttachmentBundleTest {
+
+    private static Attachment createAttachment(File folder, String name, String content) throws Exception {
+        File file = new File(folder,name);
+        Files.write(file.toPath(),content.getBytes(StandardCharsets.UTF_8));
+        return new Attachment(name,file,"application/xml");
+    }
+
+    @Test
+    public void testIdenticalContentIsStoredOnce() throws Exception {
+        File folder = Files.createTempDirectory("yamf-bundle-test").toFile();
+        File bundleFile = new File(folder,"attachments.zip");
+        Attachment attachment1 = createAttachment(folder,"TEST-Foo.xml","<testsuite failures=\"1\"/>");
+        Attachment attachment2 = createAttachment(folder,"TEST-Foo-copy.xml","<testsuite failures=\"1\"/>");
+        Attachment attachment3 = createAttachment(folder,"TEST-Bar.xml","<testsuite failures=\"0\"/>");
+
+        String hash1 = null;
+        String hash3 = null;
+        try (AttachmentBundle bundle = new AttachmentBundle(bundleFile)) {
+            hash1 = bundle.add(attachment1);
+            assertEquals(hash1,bundle.add(attachment2));
+            assertEquals(hash1,bundle.add(attachment1));
+            hash3 = bundle.add(attachment3);
+            assertNotEquals(hash1,hash3);
+            assertEquals(2,bundle.getBlobCount());
+            assertEquals(4,bundle.getAttachmentCount());
+        }
+
+        assertEquals("<testsuite failures=\"1\"/>",new String(AttachmentBundle.read(bundleFile,hash1),StandardCharsets.UTF_8));
+        assertEquals("<testsuite failures=\"0\"/>",new String(AttachmentBundle.read(bundleFile,hash3),StandardCharsets.UTF_8));
+        assertNull(AttachmentBundle.read(bundleFile,"0000"));
+    }
+
+    @Test
+    public void testInMemoryAndLazyAttachments() throws Exception {
+        File bundleFile = Files.createTempFile("yamf-bundle-test",".zip").toFile();
+        AtomicInteger reads = new AtomicInteger();
+        Attachment lazyAttachment = new Attachment("diff",() -> {
+            reads.incrementAndGet();
+            return new ByteArrayInputStream("- foo\n+ bar".getBytes(StandardCharsets.UTF_8));
+        },"text/plain");
+        Attachment inMemoryAttachment = new Attachment("diff2","- foo\n+ bar".getBytes(StandardCharsets.UTF_8),"text/plain");
+        assertEquals(0,reads.get());
+
+        try (AttachmentBundle bundle = new AttachmentBundle(bundleFile)) {
+            assertEquals(bundle.add(inMemoryAttachment),bundle.add(lazyAttachment));
+            assertEquals(1,bundle.getBlobCount());
+        }
+        assertEquals(1,reads.get()); // hashed, but not stored as the same content has already been stored
+
+        // the content of lazy attachments is read into memory when serialized
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(lazyAttachment);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Attachment copy = (Attachment)in.readObject();
+            assertEquals("- foo\n+ bar",copy.getContent().asCharSource(StandardCharsets.UTF_8).read());
+            assertEquals(lazyAttachment.getContentHash(),copy.getContentHash());
+        }
+    }
+
+    @Test
+    public void testRingBuffer() throws Exception {
+        RingBuffer buffer = new RingBuffer(8);
+        buffer.write("abc".getBytes(StandardCharsets.UTF_8));
+        assertEquals("abc",new String(buffer.toByteArray(),StandardCharsets.UTF_8));
+        buffer.write("defghij".getBytes(StandardCharsets.UTF_8));
+        buffer.write('k');
+        assertEquals("defghijk",new String(buffer.toByteArray(),StandardCharsets.UTF_8));
+        buffer.write("0123456789".getBytes(StandardCharsets.UTF_8));
+        assertEquals("23456789",new String(buffer.toByteArray(),StandardCharsets.UTF_8));
+        assertEquals(13,buffer.getDroppedByteCount());
+        Attachment attachment = new Attachment("console",buffer::openStream,"text/plain");
+        assertEquals("23456789",attachment.getContent().asCharSource(StandardCharsets.UTF_8).read());
+    }
+}
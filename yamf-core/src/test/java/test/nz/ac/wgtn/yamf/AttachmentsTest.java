@@ -0,0 +1,61 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.*;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.RepetitionInfo;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AttachmentsTest {
+
+    @ConcurrencySafe
+    public static class SchemeWithAttachments {
+
+        private static void attach(String name) throws Exception {
+            File file = File.createTempFile("yamf-" + name,".txt");
+            file.deleteOnExit();
+            Thread.sleep(100); // make sure checks overlap when run concurrently
+            Attachments.add(new Attachment(name,file,"text/plain"));
+        }
+
+        @Test @Marking(name="Q1",marks=1)
+        public void check1() throws Exception {
+            attach("a1");
+        }
+
+        @Test @Marking(name="Q2",marks=1)
+        public void check2() throws Exception {
+            attach("a2");
+        }
+
+        @RepeatedTest(3) @Marking(name="Q3",marks=1)
+        public void check3(RepetitionInfo repetitionInfo) throws Exception {
+            attach("a3-" + repetitionInfo.getCurrentRepetition());
+        }
+    }
+
+    @Test
+    public void testAttachmentsWithConcurrentChecks() {
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithAttachments.class,4).execute();
+        assertEquals(3,results.size());
+        for (MarkingResultRecord result:results) {
+            assertTrue(result.isSuccess());
+            // the record of a repeated check has the attachments of all invocations
+            assertEquals(result.getName().equals("Q3") ? 3 : 1,result.getAttachments().size());
+            for (Attachment attachment:result.getAttachments()) {
+                assertTrue(attachment.getName().startsWith("a" + result.getName().substring(1)));
+            }
+        }
+    }
+
+    @Test
+    public void testAddOutsideOfCheck() throws IOException {
+        File file = Files.createTempFile("yamf-a",".txt").toFile();
+        file.deleteOnExit();
+        assertThrows(IllegalStateException.class,() -> Attachments.add(new Attachment("a",file,"text/plain")));
+    }
+}
@@ -0,0 +1,79 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.*;
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CheckParallelismTest {
+
+    static AtomicInteger running = new AtomicInteger();
+    static AtomicInteger maxRunning = new AtomicInteger();
+
+    // returns the number of checks running at the same time
+    static int run() throws InterruptedException {
+        int count = running.incrementAndGet();
+        maxRunning.accumulateAndGet(count,Math::max);
+        try {
+            Thread.sleep(200);
+            return running.get();
+        }
+        finally {
+            running.decrementAndGet();
+        }
+    }
+
+    @ConcurrencySafe
+    public static class SchemeWithConcurrencySafeChecks {
+        @Test @Marking(name="Q1",marks=1)
+        public void check1() throws Exception {
+            run();
+        }
+
+        @Test @Marking(name="Q2",marks=1)
+        public void check2() throws Exception {
+            run();
+        }
+
+        @Test @Marking(name="Q3",marks=1)
+        public void check3() throws Exception {
+            run();
+        }
+
+        @Test @Marking(name="Q4",marks=1) @ExclusiveAccess
+        public void check4() throws Exception {
+            assertEquals(1,run());
+        }
+    }
+
+    public static class SchemeWithUnannotatedChecks {
+        @Test @Marking(name="Q1",marks=1)
+        public void check1() throws Exception {
+            run();
+        }
+
+        @Test @Marking(name="Q2",marks=1)
+        public void check2() throws Exception {
+            run();
+        }
+    }
+
+    @Test
+    public void testConcurrencySafeChecks() {
+        maxRunning.set(0);
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithConcurrencySafeChecks.class,4).execute();
+        assertEquals(4,results.size());
+        assertTrue(results.stream().allMatch(MarkingResultRecord::isSuccess));
+        assertTrue(maxRunning.get()>1);
+    }
+
+    @Test
+    public void testUnannotatedChecksAreRunExclusively() {
+        maxRunning.set(0);
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithUnannotatedChecks.class,4).execute();
+        assertEquals(2,results.size());
+        assertTrue(results.stream().allMatch(MarkingResultRecord::isSuccess));
+        assertEquals(1,maxRunning.get());
+    }
+}
@@ -0,0 +1,84 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.CostModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CostModelTest {
+
+    private File folder = null;
+    private File small = null;
+    private File large = null;
+    private File multiModule = null;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        folder = Files.createTempDir();
+        small = createSubmission("small",1,"src/Main.java");
+        large = createSubmission("large",64,"src/Main.java","src/Util.java","src/Model.java");
+        multiModule = createSubmission("multimodule",1,"pom.xml","a/pom.xml","b/pom.xml");
+    }
+
+    // create a submission with files of the given size (in KB)
+    private File createSubmission(String name, int sizeInKB, String... files) throws Exception {
+        File submission = new File(folder,name);
+        for (String path:files) {
+            File file = new File(submission,path);
+            file.getParentFile().mkdirs();
+            Files.write(new byte[sizeInKB*1024],file);
+        }
+        // build output is not part of the submission
+        File target = new File(submission,"target/classes/Main.class");
+        target.getParentFile().mkdirs();
+        Files.write(new byte[1024*1024],target);
+        return submission;
+    }
+
+    @Test
+    public void testSizeBasedEstimates() {
+        CostModel model = new CostModel();
+        assertTrue(model.estimateCost(small) < model.estimateCost(large));
+        // each module is built
+        assertTrue(model.estimateCost(large) < model.estimateCost(multiModule));
+        assertEquals(Arrays.asList(multiModule,large,small),model.sortByCost(Arrays.asList(small,large,multiModule)));
+    }
+
+    @Test
+    public void testHistory() throws Exception {
+        File history = new File(folder,"history.properties");
+        CostModel model = new CostModel(history);
+        model.recordDuration(small,60_000);
+        model.recordDuration(large,1_000);
+        model.save();
+
+        // durations recorded in previous runs take precedence over the size of submissions
+        model = new CostModel(history);
+        assertEquals(60_000,model.estimateCost(small),0.001);
+        assertEquals(Arrays.asList(small,large),model.sortByCost(Arrays.asList(large,small)));
+    }
+
+    @Test
+    public void testCalibration() throws Exception {
+        CostModel model = new CostModel();
+        double smallUnits = model.estimateCost(small);
+        double multiModuleUnits = model.estimateCost(multiModule);
+        model.recordDuration(small,1_000);
+        model.sortByCost(Arrays.asList(small,multiModule));
+        // submissions without history are estimated in millis, scaled like the submissions with history
+        assertEquals(1_000 * multiModuleUnits / smallUnits,model.estimateCost(multiModule),0.001);
+    }
+
+    @Test
+    public void testInvalidHistoryEntries() throws Exception {
+        File history = new File(folder,"history.properties");
+        Files.asCharSink(history,StandardCharsets.UTF_8).write("small=42\nlarge=not-a-number\n");
+        CostModel model = new CostModel(history);
+        assertEquals(42,model.estimateCost(small),0.001);
+        assertTrue(model.estimateCost(large)>0);
+    }
+}
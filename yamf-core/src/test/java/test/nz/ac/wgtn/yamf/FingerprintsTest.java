@@ -0,0 +1,40 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.commons.Fingerprints;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FingerprintsTest {
+
+    private static File createSubmission() throws Exception {
+        File folder = Files.createTempDir();
+        new File(folder,"src").mkdirs();
+        Files.asCharSink(new File(folder,"src/Foo.java"),StandardCharsets.UTF_8).write("class Foo {}");
+        return folder;
+    }
+
+    @Test
+    public void testSameContent() throws Exception {
+        assertEquals(Fingerprints.of(createSubmission()),Fingerprints.of(createSubmission()));
+    }
+
+    @Test
+    public void testChangedContent() throws Exception {
+        File submission = createSubmission();
+        String fingerprint = Fingerprints.of(submission);
+        Files.asCharSink(new File(submission,"src/Foo.java"),StandardCharsets.UTF_8).write("class Foo { }");
+        assertNotEquals(fingerprint,Fingerprints.of(submission));
+    }
+
+    @Test
+    public void testTargetFolderIsIgnored() throws Exception {
+        File submission = createSubmission();
+        String fingerprint = Fingerprints.of(submission);
+        new File(submission,"target").mkdirs();
+        Files.asCharSink(new File(submission,"target/Foo.class"),StandardCharsets.UTF_8).write("...");
+        assertEquals(fingerprint,Fingerprints.of(submission));
+    }
+}
@@ -0,0 +1,79 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.MarkingScriptBuilder;
+import nz.ac.wgtn.yamf.SubmissionContext;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ForkedMarkingWorkersTest {
+
+    public static class Scheme {
+        @Test @Marking(name="Q1",marks=1)
+        public void q1(SubmissionContext context) {
+            if (context.getSubmission().getName().equals("s2")) {
+                // kills the worker JVM marking the submission
+                System.exit(1);
+            }
+        }
+        @Test @Marking(name="Q2",marks=1)
+        public void q2() {}
+    }
+
+    // the main class run by worker JVMs
+    public static class Script {
+        public static void main(String[] args) throws Exception {
+            builder().run();
+        }
+    }
+
+    private static MarkingScriptBuilder builder() {
+        return new MarkingScriptBuilder()
+            .configureLogging(false)
+            .markingScheme(Scheme.class)
+            .forkWorkers(1)
+            .workerMainClass(Script.class);
+    }
+
+    private File[] submissions = null;
+    private Map<String,List<MarkingResultRecord>> reported = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    @BeforeEach
+    public void setup() {
+        File folder = Files.createTempDir();
+        submissions = new File[]{new File(folder,"s1"),new File(folder,"s2"),new File(folder,"s3")};
+        for (File submission:submissions) {
+            submission.mkdirs();
+        }
+    }
+
+    @Test
+    public void testWorkerDiesWhileMarking() throws Exception {
+        builder()
+            .submissions(submissions)
+            .reportTo(submission -> results -> reported.put(submission.getName(),results))
+            .run();
+
+        assertEquals(Arrays.asList("s1","s2","s3"),new ArrayList<>(reported.keySet()));
+        assertEquals(2,reported.get("s1").size());
+        assertTrue(reported.get("s1").stream().allMatch(MarkingResultRecord::isSuccess));
+
+        // the checks of the submission marked by the worker that has died must be marked manually
+        List<MarkingResultRecord> results = reported.get("s2");
+        assertEquals(2,results.size());
+        for (MarkingResultRecord record:results) {
+            assertTrue(record.isAborted());
+            assertEquals(0,record.getMark());
+            assertTrue(record.getFailure().getMessage().contains("Worker JVM failed marking"));
+        }
+
+        // the next submission is marked by a new worker
+        assertEquals(2,reported.get("s3").size());
+        assertTrue(reported.get("s3").stream().allMatch(MarkingResultRecord::isSuccess));
+    }
+}
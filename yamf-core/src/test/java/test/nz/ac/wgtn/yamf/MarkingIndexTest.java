@@ -0,0 +1,102 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.*;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.RepetitionInfo;
+import org.junit.jupiter.api.Test;
+import org.opentest4j.AssertionFailedError;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarkingIndexTest {
+
+    public static class SchemeWithOverloadedChecks {
+        @Test @Marking(name="Q1",marks=1)
+        public void check() {}
+        @Test @Marking(name="Q2",marks=2)
+        public void check(SubmissionContext context) {}
+        @RepeatedTest(2) @Marking(name="Q3",marks=3,requires="Q1")
+        public void check(RepetitionInfo repetitionInfo) {}
+        @Test @Marking(name="Q4",marks=-1) @ManualMarkingIsRequired(instructions="check \"manually\"")
+        public void penalty() {}
+        // not a test, used to check how parameter types are encoded
+        @Marking(name="Q5",marks=1)
+        public void check(String[][] strings, int[] ints, List<String> list) {}
+    }
+
+    public static class SchemeWithFailingRepetition {
+        @RepeatedTest(3) @Marking(name="Q1",marks=2)
+        public void check(RepetitionInfo repetitionInfo) {
+            assertNotEquals(2,repetitionInfo.getCurrentRepetition());
+        }
+    }
+
+    @Test
+    public void testIndex() {
+        String className = SchemeWithOverloadedChecks.class.getName();
+        MarkingIndex index = MarkingIndex.of(className,getClass().getClassLoader());
+        assertNotNull(index);
+        assertEquals(5,index.getEntries().size());
+        assertEquals("Q1",index.get(className + "::check()").getName());
+        assertEquals("Q2",index.get(className + "::check(nz.ac.wgtn.yamf.SubmissionContext)").getName());
+        assertEquals("Q3",index.get(className + "::check(org.junit.jupiter.api.RepetitionInfo)").getName());
+        assertEquals("Q1",index.get(className + "::check(org.junit.jupiter.api.RepetitionInfo)").getRequires().get(0));
+        assertEquals("check \"manually\"",index.get(className + "::penalty()").getManualMarkingInstructions());
+        assertEquals("Q5",index.get(className + "::check([[Ljava.lang.String;, [I, java.util.List)").getName());
+    }
+
+    // loads the marking schemes in this test again, and delegates to the class loader of the test otherwise
+    private static class ReloadingClassLoader extends URLClassLoader {
+        ReloadingClassLoader() {
+            super(new URL[]{MarkingIndexTest.class.getProtectionDomain().getCodeSource().getLocation()},MarkingIndexTest.class.getClassLoader());
+        }
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(MarkingIndexTest.class.getName() + "$")) {
+                return super.loadClass(name,resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> clazz = findLoadedClass(name);
+                return clazz==null ? findClass(name) : clazz;
+            }
+        }
+    }
+
+    @Test
+    public void testIndexesByClassLoader() throws Exception {
+        MarkingIndex index = MarkingIndex.of(SchemeWithOverloadedChecks.class);
+        assertSame(index,MarkingIndex.of(SchemeWithOverloadedChecks.class.getName(),getClass().getClassLoader()));
+        try (URLClassLoader classLoader = new ReloadingClassLoader()) {
+            Class<?> reloadedScheme = classLoader.loadClass(SchemeWithOverloadedChecks.class.getName());
+            assertNotSame(SchemeWithOverloadedChecks.class,reloadedScheme);
+            MarkingIndex reloadedIndex = MarkingIndex.of(reloadedScheme);
+            assertNotNull(reloadedIndex);
+            assertSame(classLoader,reloadedIndex.getClass().getClassLoader());
+            assertSame(reloadedIndex,MarkingIndex.of(SchemeWithOverloadedChecks.class.getName(),classLoader));
+        }
+        assertNull(MarkingIndex.of(SchemeWithOverloadedChecks.class.getName() + "Missing",getClass().getClassLoader()));
+        assertNull(MarkingIndex.of(MarkingIndexTest.class));
+    }
+
+    @Test
+    public void testPlanWithOverloadedChecks() {
+        MarkingPlan plan = MarkingPlan.compile(SchemeWithOverloadedChecks.class);
+        assertEquals(4,plan.getCheckNames().size());
+        List<MarkingResultRecord> results = plan.execute();
+        assertEquals(4,results.size()); // the invocations of Q3 are recorded together
+        assertEquals(1+2+3,results.stream().mapToDouble(MarkingResultRecord::getMark).sum());
+        assertEquals(plan.getMaxMarks(),results.stream().mapToDouble(MarkingResultRecord::getMaxMark).sum());
+        assertTrue(results.stream().filter(result -> !result.isManualMarkingRequired()).allMatch(MarkingResultRecord::isSuccess));
+    }
+
+    @Test
+    public void testRepeatedCheckWithFailingRepetition() {
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithFailingRepetition.class).execute();
+        assertEquals(1,results.size());
+        assertTrue(results.get(0).isFailed());
+        assertEquals(0,results.get(0).getMark());
+        assertEquals(AssertionFailedError.class.getName(),results.get(0).getFailure().getType());
+    }
+}
@@ -0,0 +1,132 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingScriptBuilder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarkingJournalTest {
+
+    // frames start with the length (int) and the checksum (long) of the serialized results
+    private static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    public static class SimpleScheme {
+        @Test @Marking(name="Q1",marks=1)
+        public void check() {}
+    }
+
+    private File[] submissions = null;
+    private File journal = null;
+    private List<String> marked = Collections.synchronizedList(new ArrayList<>());
+    private List<String> reported = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void setup() throws Exception {
+        File folder = Files.createTempDir();
+        submissions = new File[]{new File(folder,"s1"),new File(folder,"s2"),new File(folder,"s3")};
+        for (File submission:submissions) {
+            submission.mkdirs();
+        }
+        journal = new File(folder,"journal.bin");
+    }
+
+    private void mark(boolean resume, File... submissions) throws Exception {
+        marked.clear();
+        reported.clear();
+        MarkingScriptBuilder builder = new MarkingScriptBuilder()
+            .configureLogging(false)
+            .markingScheme(SimpleScheme.class)
+            .submissions(submissions)
+            .beforeMarkingEachProjectDo(submission -> marked.add(submission.getName()))
+            .reportTo(submission -> results -> reported.add(submission.getName()));
+        if (resume) {
+            builder.resume(journal);
+        }
+        else {
+            builder.journal(journal);
+        }
+        builder.run();
+    }
+
+    // the offset of the frame with the given index
+    private long getFrameOffset(int index) throws Exception {
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new FileInputStream(journal))) {
+            for (int i=0;i<index;i++) {
+                int length = in.readInt();
+                in.skipBytes(Long.BYTES + length);
+                offset = offset + HEADER_SIZE + length;
+            }
+        }
+        return offset;
+    }
+
+    @Test
+    public void testResumeSkipsSubmissionsInJournal() throws Exception {
+        mark(false,submissions[0],submissions[1]);
+        assertEquals(Arrays.asList("s1","s2"),marked);
+
+        mark(true,submissions);
+        assertEquals(Arrays.asList("s3"),marked);
+        assertEquals(Arrays.asList("s1","s2","s3"),reported);
+
+        // all submissions are in the journal, reports are only regenerated
+        mark(true,submissions);
+        assertTrue(marked.isEmpty());
+        assertEquals(Arrays.asList("s1","s2","s3"),reported);
+    }
+
+    @Test
+    public void testTornFinalFrameIsTruncated() throws Exception {
+        mark(false,submissions);
+        long validLength = getFrameOffset(2);
+        try (RandomAccessFile file = new RandomAccessFile(journal,"rw")) {
+            // the JVM died while writing the last frame
+            file.setLength(file.length()-5);
+        }
+
+        // resuming without marking s3 only discards the torn frame
+        mark(true,submissions[0],submissions[1]);
+        assertTrue(marked.isEmpty());
+        assertEquals(validLength,journal.length());
+
+        mark(true,submissions);
+        assertEquals(Arrays.asList("s3"),marked);
+        assertEquals(getFrameOffset(3),journal.length());
+
+        // the frame appended for s3 can be read
+        mark(true,submissions);
+        assertTrue(marked.isEmpty());
+    }
+
+    @Test
+    public void testChecksumMismatchStopsReplay() throws Exception {
+        mark(false,submissions);
+        long offset = getFrameOffset(1) + HEADER_SIZE + 10;
+        try (RandomAccessFile file = new RandomAccessFile(journal,"rw")) {
+            // corrupt the results of s2
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0xFF);
+        }
+
+        // the results of s1 are still used, the frames of s2 and s3 are discarded
+        mark(true,submissions);
+        assertEquals(Arrays.asList("s2","s3"),marked);
+        assertEquals(Arrays.asList("s1","s2","s3"),reported);
+
+        mark(true,submissions);
+        assertTrue(marked.isEmpty());
+    }
+}
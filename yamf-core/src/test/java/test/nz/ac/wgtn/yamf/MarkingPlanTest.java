@@ -0,0 +1,157 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingPlan;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.SubmissionContext;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.junit.platform.engine.TestExecutionResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarkingPlanTest {
+
+    public static class SchemeWithRequirements {
+        @Test @Marking(name="Q1",marks=1)
+        public void q1() {
+            Assertions.fail();
+        }
+        @Test @Marking(name="Q2",marks=1,requires="Q1")
+        public void q2() {}
+        @Test @Marking(name="Q3",marks=1,requires="Q2")
+        public void q3() {}
+        @Test @Marking(name="Q4",marks=1)
+        public void q4() {}
+    }
+
+    public static class SchemeWithRepeatedCheck {
+        @Test @Marking(name="Q1",marks=1)
+        public void q1() {}
+        @RepeatedTest(3) @Marking(name="Q2",marks=1)
+        public void q2() {}
+    }
+
+    // the declared order runs checks before the checks they require
+    @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+    public static class SchemeWithRequirementsAndFixture {
+        static AtomicInteger setups = new AtomicInteger();
+        static List<String> checks = Collections.synchronizedList(new ArrayList<>());
+        @BeforeAll
+        public static void build() {
+            setups.incrementAndGet();
+        }
+        @Test @Order(1) @Marking(name="Q3",marks=1,requires="Q2")
+        public void q3() {
+            checks.add("Q3");
+        }
+        @Test @Order(2) @Marking(name="Q2",marks=1,requires="Q1")
+        public void q2() {
+            checks.add("Q2");
+        }
+        @Test @Order(3) @Marking(name="Q1",marks=1)
+        public void q1() {
+            checks.add("Q1");
+        }
+        @Test @Order(4) @Marking(name="Q4",marks=1)
+        public void q4() {
+            checks.add("Q4");
+        }
+    }
+
+    public static class SchemeWithCyclicRequirements {
+        @Test @Marking(name="Q1",marks=1,requires="Q2")
+        public void q1() {}
+        @Test @Marking(name="Q2",marks=1,requires="Q1")
+        public void q2() {}
+    }
+
+    public static class SchemeWithUnknownRequirement {
+        @Test @Marking(name="Q1",marks=1,requires="Q2")
+        public void q1() {}
+    }
+
+    @Test
+    public void testRequirements() {
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithRequirements.class).execute();
+        assertEquals(4,results.size());
+        assertEquals(TestExecutionResult.Status.FAILED.name(),results.get(0).getResultStatus());
+        assertEquals(TestExecutionResult.Status.ABORTED.name(),results.get(1).getResultStatus());
+        assertEquals(TestExecutionResult.Status.ABORTED.name(),results.get(2).getResultStatus());
+        assertEquals(TestExecutionResult.Status.SUCCESSFUL.name(),results.get(3).getResultStatus());
+    }
+
+    @Test
+    public void testRequirementsInSingleExecution() {
+        SchemeWithRequirementsAndFixture.setups.set(0);
+        SchemeWithRequirementsAndFixture.checks.clear();
+        MarkingPlan plan = MarkingPlan.compile(SchemeWithRequirementsAndFixture.class);
+        for (int i=1;i<=2;i++) {
+            List<MarkingResultRecord> results = plan.execute();
+            assertEquals(4,results.size());
+            assertTrue(results.stream().allMatch(MarkingResultRecord::isSuccess));
+            // @BeforeAll methods (e.g. building the submission) are run once per execution, not once per stage
+            assertEquals(i,SchemeWithRequirementsAndFixture.setups.get());
+        }
+        // checks are run after the checks they require, and in the declared order otherwise
+        assertEquals(Arrays.asList("Q1","Q2","Q3","Q4","Q1","Q2","Q3","Q4"),SchemeWithRequirementsAndFixture.checks);
+    }
+
+    @Test
+    public void testRequirementsNotInFilteredPlan() {
+        // Q1 is not re-run, its stored result is a failure
+        MarkingPlan plan = MarkingPlan.compile(SchemeWithRequirements.class).filter(Collections.singleton("Q2"));
+        List<MarkingResultRecord> results = plan.execute(new SubmissionContext(null),0,Collections.singleton("Q1"),record -> {});
+        assertEquals(1,results.size());
+        assertEquals("Q2",results.get(0).getName());
+        assertTrue(results.get(0).isAborted());
+        assertEquals(0,results.get(0).getMark());
+
+        results = plan.execute(new SubmissionContext(null),0,Collections.emptySet(),record -> {});
+        assertEquals(1,results.size());
+        assertTrue(results.get(0).isSuccess());
+    }
+
+    @Test
+    public void testConcurrentExecutions() throws Exception {
+        // each execution runs on a new thread, like submissions marked on virtual threads
+        MarkingPlan plan = MarkingPlan.compile(SchemeWithRepeatedCheck.class);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<List<MarkingResultRecord>>> futures = new ArrayList<>();
+            for (int i=0;i<50;i++) {
+                futures.add(executor.submit(() -> plan.execute()));
+            }
+            for (Future<List<MarkingResultRecord>> future:futures) {
+                List<MarkingResultRecord> results = future.get();
+                assertEquals(2,results.size());
+                assertTrue(results.stream().allMatch(MarkingResultRecord::isSuccess));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCyclicRequirements() {
+        assertThrows(IllegalArgumentException.class,() -> MarkingPlan.compile(SchemeWithCyclicRequirements.class));
+    }
+
+    @Test
+    public void testUnknownRequirement() {
+        assertThrows(IllegalArgumentException.class,() -> MarkingPlan.compile(SchemeWithUnknownRequirement.class));
+    }
+}
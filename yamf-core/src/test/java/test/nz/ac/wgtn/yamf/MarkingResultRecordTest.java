@@ -0,0 +1,104 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.FailureSummary;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.MarkingTestExecutionListener;
+import org.junit.jupiter.api.Test;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.UniqueId;
+import org.junit.platform.engine.support.descriptor.AbstractTestDescriptor;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestIdentifier;
+import org.opentest4j.TestAbortedException;
+import java.io.*;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MarkingResultRecordTest {
+
+    private static TestIdentifier createTestIdentifier() {
+        AbstractTestDescriptor descriptor = new AbstractTestDescriptor(UniqueId.forEngine("junit-jupiter").append("method","foo()"),"foo()",MethodSource.from("Foo","foo")) {
+            @Override
+            public Type getType() {
+                return Type.TEST;
+            }
+        };
+        return TestIdentifier.from(descriptor);
+    }
+
+    private static MarkingResultRecord copy(MarkingResultRecord record) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(record);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (MarkingResultRecord)in.readObject();
+        }
+    }
+
+    @Test
+    public void testSerializeSuccessful() throws Exception {
+        MarkingTestExecutionListener.AssignedMark mark = new MarkingTestExecutionListener.AssignedMark(2,"Q1",false,null);
+        MarkingResultRecord record = copy(new MarkingResultRecord(mark,createTestIdentifier(),TestExecutionResult.successful()));
+        assertEquals("Q1",record.getName());
+        assertEquals(2,record.getMark());
+        assertTrue(record.isSuccess());
+        assertFalse(record.hasThrowable());
+    }
+
+    @Test
+    public void testSerializeAborted() throws Exception {
+        MarkingTestExecutionListener.AssignedMark mark = new MarkingTestExecutionListener.AssignedMark(2,"Q1",false,null);
+        MarkingResultRecord record = copy(new MarkingResultRecord(mark,createTestIdentifier(),TestExecutionResult.aborted(new TestAbortedException("no pom"))));
+        assertTrue(record.isAborted());
+        assertEquals(0,record.getMark());
+        assertEquals("no pom",record.getThrowable().getMessage());
+        assertEquals(TestAbortedException.class.getName(),record.getFailure().getType());
+    }
+
+    @Test
+    public void testSerializeNonSerializableThrowable() throws Exception {
+        MarkingTestExecutionListener.AssignedMark mark = new MarkingTestExecutionListener.AssignedMark(2,"Q1",false,null);
+        Exception x = new Exception("failed") {
+            Object notSerializable = new Object();
+        };
+        MarkingResultRecord record = copy(new MarkingResultRecord(mark,createTestIdentifier(),TestExecutionResult.failed(x)));
+        assertTrue(record.isFailed());
+        assertEquals("failed",record.getThrowable().getMessage());
+        assertEquals(x.getStackTrace()[0],record.getThrowable().getStackTrace()[0]);
+    }
+
+    @Test
+    public void testFailureSummary() throws Exception {
+        MarkingTestExecutionListener.AssignedMark mark = new MarkingTestExecutionListener.AssignedMark(2,"Q1",false,null);
+        StringBuilder details = new StringBuilder();
+        for (int i=0;i<10_000;i++) {
+            details.append("test ").append(i).append(" failed\n");
+        }
+        StackTraceElement recursion = new StackTraceElement("Foo","foo","Foo.java",42);
+        StackTraceElement[] stackTrace = new StackTraceElement[1000];
+        Arrays.fill(stackTrace,recursion);
+        stackTrace[999] = new StackTraceElement("org.junit.platform.Bar","bar","Bar.java",1);
+        AssertionError x = new AssertionError(details.toString());
+        x.setStackTrace(stackTrace);
+        MarkingResultRecord record = copy(new MarkingResultRecord(mark,createTestIdentifier(),TestExecutionResult.failed(x)));
+        assertTrue(record.isFailed());
+        assertTrue(record.getThrowable().getMessage().length()<FailureSummary.MAX_MESSAGE_LENGTH+100);
+        assertArrayEquals(new StackTraceElement[]{recursion},record.getThrowable().getStackTrace());
+        assertTrue(record.getThrowable().toString().startsWith(AssertionError.class.getName()));
+        assertNull(record.getThrowable().getCause());
+    }
+
+    @Test
+    public void testFailureSummaryWithRootCause() throws Exception {
+        MarkingTestExecutionListener.AssignedMark mark = new MarkingTestExecutionListener.AssignedMark(2,"Q1",false,null);
+        // a check that has timed out, its failure is wrapped
+        Exception cause = new IllegalStateException("wrapped",new AssertionError("expected 42"));
+        TestAbortedException x = new TestAbortedException("The check has timed out",cause);
+        MarkingResultRecord record = copy(new MarkingResultRecord(mark,createTestIdentifier(),TestExecutionResult.aborted(x)));
+        assertEquals(AssertionError.class.getName(),record.getFailure().getRootCauseType());
+        assertEquals("expected 42",record.getFailure().getRootCauseMessage());
+        assertEquals(AssertionError.class.getName() + ": expected 42",record.getThrowable().getCause().toString());
+        assertTrue(record.getFailure().toString().endsWith("(caused by " + AssertionError.class.getName() + ": expected 42)"));
+    }
+}
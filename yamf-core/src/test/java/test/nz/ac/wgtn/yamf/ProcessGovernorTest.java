@@ -0,0 +1,64 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.commons.ProcessGovernor;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProcessGovernorTest {
+
+    @Test
+    public void testProcessTypes() {
+        assertEquals(ProcessGovernor.MVN,ProcessGovernor.getProcessType(Arrays.asList("mvn","test")));
+        assertEquals(ProcessGovernor.MVN,ProcessGovernor.getProcessType(Arrays.asList("/usr/bin/mvn","test")));
+        assertEquals(ProcessGovernor.JUNIT,ProcessGovernor.getProcessType(Arrays.asList("java","-jar","lib/junit-platform-console-standalone-1.6.2.jar")));
+        assertEquals(ProcessGovernor.JAVA,ProcessGovernor.getProcessType(Arrays.asList("java","-version")));
+        assertEquals(ProcessGovernor.OTHER,ProcessGovernor.getProcessType(Arrays.asList("sh","-c","ls")));
+    }
+
+    @Test
+    public void testMemoryBudget() throws Exception {
+        ProcessGovernor governor = new ProcessGovernor().cpuSlots(4).memoryBudgetInMB(1500);
+        ProcessGovernor.Permit permit1 = governor.acquire(ProcessGovernor.MVN);
+        AtomicReference<ProcessGovernor.Permit> permit2 = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                permit2.set(governor.acquire(ProcessGovernor.MVN));
+            }
+            catch (InterruptedException x) {}
+        });
+        thread.start();
+        thread.join(200);
+        assertNull(permit2.get()); // waiting for memory
+        governor.release(permit1);
+        thread.join(5000);
+        assertNotNull(permit2.get());
+        governor.release(permit2.get());
+    }
+
+    @Test
+    public void testCpuSlots() throws Exception {
+        ProcessGovernor governor = new ProcessGovernor().cpuSlots(1);
+        ProcessGovernor.Permit permit = governor.acquire(ProcessGovernor.OTHER);
+        // the permit acquired by the thread, or the exception thrown when it is interrupted
+        AtomicReference<Object> outcome = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                outcome.set(governor.acquire(ProcessGovernor.OTHER));
+            }
+            catch (InterruptedException x) {
+                outcome.set(x);
+            }
+        });
+        thread.start();
+        thread.join(200);
+        assertTrue(thread.isAlive()); // waiting for a slot
+        assertNull(outcome.get());
+        thread.interrupt();
+        thread.join(5000);
+        assertFalse(thread.isAlive());
+        assertTrue(outcome.get() instanceof InterruptedException);
+        governor.release(permit);
+    }
+}
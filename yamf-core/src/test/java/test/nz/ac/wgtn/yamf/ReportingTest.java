@@ -0,0 +1,106 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.MarkingScriptBuilder;
+import nz.ac.wgtn.yamf.reporting.Reporter;
+import nz.ac.wgtn.yamf.reporting.StreamingReporter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReportingTest {
+
+    public static class SimpleScheme {
+        @Test @Marking(name="Q1",marks=1)
+        public void check() {}
+    }
+
+    // records callbacks, and fails when receiving records if failing is set
+    private class RecordingReporter implements Reporter, StreamingReporter {
+        private boolean failing = false;
+        RecordingReporter(boolean failing) {
+            this.failing = failing;
+        }
+        @Override
+        public void generateReport(List<MarkingResultRecord> results) {
+            fail("streaming reporters are not asked to generate reports");
+        }
+        @Override
+        public void onSubmissionStart(File submission) {
+            events.add("start " + submission.getName());
+        }
+        @Override
+        public void onRecord(MarkingResultRecord record) {
+            if (failing) {
+                throw new IllegalStateException("reporter failure");
+            }
+            events.add("record " + record.getName());
+        }
+        @Override
+        public void onSubmissionEnd(File submission) {
+            events.add("end " + submission.getName());
+        }
+    }
+
+    private File[] submissions = null;
+    private List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private List<String> reported = Collections.synchronizedList(new ArrayList<>());
+    private List<String> finished = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void setup() {
+        File folder = Files.createTempDir();
+        submissions = new File[]{new File(folder,"s1"),new File(folder,"s2")};
+        for (File submission:submissions) {
+            submission.mkdirs();
+        }
+    }
+
+    private MarkingScriptBuilder builder() {
+        return new MarkingScriptBuilder()
+            .configureLogging(false)
+            .markingScheme(SimpleScheme.class)
+            .submissions(submissions)
+            .reportTo(submission -> new RecordingReporter(true))
+            .reportTo(submission -> results -> reported.add(submission.getName()))
+            .afterMarkingEachActionDo(submission -> finished.add(submission.getName()));
+    }
+
+    @Test
+    public void testFailingReporterWhenStreaming() throws Exception {
+        builder().run();
+        assertEquals(Arrays.asList("start s1","end s1","start s2","end s2"),events);
+        assertEquals(Arrays.asList("s1","s2"),reported);
+        assertEquals(Arrays.asList("s1","s2"),finished);
+    }
+
+    @Test
+    public void testFailingReporterWhenReplaying() throws Exception {
+        // submissions marked in parallel are reported when all their results are available
+        builder().parallelism(2).run();
+        assertEquals(Arrays.asList("start s1","end s1","start s2","end s2"),events);
+        assertEquals(Arrays.asList("s1","s2"),reported);
+        assertEquals(Arrays.asList("s1","s2"),finished);
+    }
+
+    @Test
+    public void testStreamingReporterFinishedWhenMarkingFails() {
+        MarkingScriptBuilder builder = new MarkingScriptBuilder()
+            .configureLogging(false)
+            .markingScheme(SimpleScheme.class)
+            .submissions(submissions)
+            .reportTo(submission -> new RecordingReporter(false))
+            .beforeMarkingEachProjectDo(submission -> {
+                throw new IllegalStateException("cannot prepare submission");
+            });
+        assertThrows(Exception.class,builder::run);
+        assertEquals(Arrays.asList("start s1","end s1"),events);
+    }
+}
@@ -0,0 +1,128 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.MarkingScriptBuilder;
+import nz.ac.wgtn.yamf.ShardMerger;
+import nz.ac.wgtn.yamf.reporting.CohortReporter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.util.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardMergerTest {
+
+    public static class SimpleScheme {
+        @Test @Marking(name="Q1",marks=1)
+        public void check() {}
+    }
+
+    private File folder = null;
+    private File[] submissions = null;
+    private List<String> marked = Collections.synchronizedList(new ArrayList<>());
+    private List<String> reported = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    public void setup() {
+        folder = Files.createTempDir();
+        submissions = new File[]{new File(folder,"s1"),new File(folder,"s2"),new File(folder,"s3"),new File(folder,"s4")};
+        for (File submission:submissions) {
+            submission.mkdirs();
+        }
+    }
+
+    // mark submissions, and record the results in a journal
+    private File mark(String journalName, MarkingScriptBuilder builder, File... submissions) throws Exception {
+        File journal = new File(folder,journalName);
+        builder
+            .configureLogging(false)
+            .markingScheme(SimpleScheme.class)
+            .submissions(submissions)
+            .journal(journal)
+            .beforeMarkingEachProjectDo(submission -> marked.add(submission.getName()))
+            .reportTo(submission -> results -> {})
+            .run();
+        return journal;
+    }
+
+    private ShardMerger merger(File... journals) {
+        return new ShardMerger()
+            .journals(journals)
+            .submissions(submissions)
+            .reportTo(submission -> results -> reported.add(submission.getName() + ":" + results.size()));
+    }
+
+    @Test
+    public void testMergeShards() throws Exception {
+        File journal1 = mark("shard0.bin",new MarkingScriptBuilder().shard(0,2),submissions);
+        int marked1 = marked.size();
+        File journal2 = mark("shard1.bin",new MarkingScriptBuilder().shard(1,2),submissions);
+        // each submission has been marked in exactly one shard
+        assertTrue(marked1>0 && marked1<submissions.length);
+        assertEquals(new HashSet<>(Arrays.asList("s1","s2","s3","s4")),new HashSet<>(marked));
+        assertEquals(submissions.length,marked.size());
+        ShardMerger merger = merger(journal1,journal2);
+        merger.merge();
+        assertTrue(merger.getMissingSubmissions().isEmpty());
+        assertTrue(merger.getDuplicateSubmissions().isEmpty());
+        // reported in the order in which submissions have been set
+        assertEquals(Arrays.asList("s1:1","s2:1","s3:1","s4:1"),reported);
+    }
+
+    @Test
+    public void testMissingSubmissions() throws Exception {
+        File journal1 = mark("shard0.bin",new MarkingScriptBuilder(),submissions[0],submissions[1]);
+        File journal2 = mark("shard1.bin",new MarkingScriptBuilder(),submissions[3]);
+        ShardMerger merger = merger(journal1,journal2);
+        assertThrows(IllegalStateException.class,merger::merge);
+        assertEquals(Collections.singleton("s3"),merger.getMissingSubmissions());
+        assertTrue(merger.getDuplicateSubmissions().isEmpty());
+        assertTrue(reported.isEmpty());
+
+        merger.ignoreInconsistencies(true).merge();
+        assertEquals(Collections.singleton("s3"),merger.getMissingSubmissions());
+        assertEquals(Arrays.asList("s1:1","s2:1","s4:1"),reported);
+    }
+
+    @Test
+    public void testDuplicateSubmissions() throws Exception {
+        File journal1 = mark("shard0.bin",new MarkingScriptBuilder(),submissions[0],submissions[1],submissions[2]);
+        File journal2 = mark("shard1.bin",new MarkingScriptBuilder(),submissions[2],submissions[3]);
+        ShardMerger merger = merger(journal1,journal2);
+        assertThrows(IllegalStateException.class,merger::merge);
+        assertTrue(merger.getMissingSubmissions().isEmpty());
+        assertEquals(Collections.singleton("s3"),merger.getDuplicateSubmissions());
+        assertTrue(reported.isEmpty());
+
+        // duplicated results are only reported once
+        merger.ignoreInconsistencies(true).merge();
+        assertEquals(Collections.singleton("s3"),merger.getDuplicateSubmissions());
+        assertEquals(Arrays.asList("s1:1","s2:1","s3:1","s4:1"),reported);
+    }
+
+    @Test
+    public void testFailingReporter() throws Exception {
+        File journal = mark("shard0.bin",new MarkingScriptBuilder(),submissions);
+        List<String> cohort = new ArrayList<>();
+        ShardMerger merger = merger(journal)
+            .reportTo(submission -> results -> {
+                throw new IllegalStateException("cannot report " + submission.getName());
+            })
+            .reportCohortTo(new CohortReporter() {
+                @Override
+                public void startCohort(Map<String,Double> maxMarks) {}
+                @Override
+                public void addSubmission(File submission, List<MarkingResultRecord> results) {
+                    cohort.add(submission.getName());
+                }
+                @Override
+                public void finishCohort() {}
+            });
+        // the failing reporter does not prevent the other reporters from running
+        merger.merge();
+        assertEquals(Arrays.asList("s1:1","s2:1","s3:1","s4:1"),reported);
+        assertEquals(Arrays.asList("s1","s2","s3","s4"),cohort);
+    }
+}
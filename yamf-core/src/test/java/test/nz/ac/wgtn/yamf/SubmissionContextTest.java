@@ -0,0 +1,71 @@
+package test.nz.ac.wgtn.yamf;
+
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingPlan;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.SubmissionContext;
+import org.junit.jupiter.api.Test;
+import org.opentest4j.TestAbortedException;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubmissionContextTest {
+
+    public static class InnerScheme {
+        @Test @Marking(name="Q1",marks=1)
+        public void check() {
+            assertEquals("inner",SubmissionContext.current().getSubmission().getName());
+        }
+    }
+
+    public static class OuterScheme {
+        @Test @Marking(name="Q1",marks=1)
+        public void check() {
+            SubmissionContext context = SubmissionContext.current();
+            List<MarkingResultRecord> results = MarkingPlan.compile(InnerScheme.class).execute(new SubmissionContext(new File("inner")),0);
+            assertTrue(results.get(0).isSuccess());
+            // the context of the outer execution is restored when the inner execution has finished
+            assertSame(context,SubmissionContext.current());
+        }
+    }
+
+    @Test
+    public void testMemoizeResult() throws Exception {
+        SubmissionContext context = new SubmissionContext(new File("."));
+        AtomicInteger counter = new AtomicInteger();
+        assertEquals(1,(int)context.memoized("action",counter::incrementAndGet,new File("foo"),new String[]{"a","b"}));
+        assertEquals(1,(int)context.memoized("action",counter::incrementAndGet,new File("foo"),new String[]{"a","b"}));
+        assertEquals(2,(int)context.memoized("action",counter::incrementAndGet,new File("foo"),new String[]{"a","c"}));
+        assertEquals(2,counter.get());
+    }
+
+    @Test
+    public void testMemoizeException() throws Exception {
+        SubmissionContext context = new SubmissionContext(new File("."));
+        AtomicInteger counter = new AtomicInteger();
+        for (int i=0;i<2;i++) {
+            assertThrows(TestAbortedException.class,() -> context.memoized("action",() -> {
+                counter.incrementAndGet();
+                throw new TestAbortedException();
+            }));
+        }
+        assertEquals(1,counter.get());
+    }
+
+    @Test
+    public void testNestedExecutions() {
+        List<MarkingResultRecord> results = MarkingPlan.compile(OuterScheme.class).execute(new SubmissionContext(new File("outer")),0);
+        assertTrue(results.get(0).isSuccess(),() -> String.valueOf(results.get(0).getFailure()));
+        assertNull(SubmissionContext.current());
+    }
+
+    @Test
+    public void testNoContext() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+        SubmissionContext.memoize("action",counter::incrementAndGet);
+        SubmissionContext.memoize("action",counter::incrementAndGet);
+        assertEquals(2,counter.get());
+    }
+}
@@ -0,0 +1,121 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingScriptBuilder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubmissionWatcherTest {
+
+    private static final long QUIET_PERIOD_IN_MILLIS = 200;
+
+    public static class SimpleScheme {
+        @Test @Marking(name="Q1",marks=1)
+        public void check() {}
+    }
+
+    private File dropFolder = null;
+    private BlockingQueue<String> reported = new LinkedBlockingQueue<>();
+    private AtomicReference<Throwable> failure = new AtomicReference<>();
+    private Thread daemon = null;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        dropFolder = Files.createTempDir();
+        write(new File(dropFolder,"s1/src/Main.java"),"class Main {}");
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (daemon!=null) {
+            daemon.interrupt();
+            daemon.join(10_000);
+        }
+    }
+
+    private static void write(File file, String content) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.asCharSink(file,StandardCharsets.UTF_8).write(content);
+    }
+
+    private void startDaemon() {
+        MarkingScriptBuilder builder = new MarkingScriptBuilder()
+            .configureLogging(false)
+            .markingScheme(SimpleScheme.class)
+            .watch(dropFolder,QUIET_PERIOD_IN_MILLIS)
+            .reportTo(submission -> results -> reported.add(submission.getName()));
+        daemon = new Thread(() -> {
+            try {
+                builder.run();
+            }
+            catch (Throwable x) {
+                failure.set(x);
+            }
+        });
+        daemon.start();
+    }
+
+    private String nextReported() throws Exception {
+        return reported.poll(10,TimeUnit.SECONDS);
+    }
+
+    // wait for several quiet periods, and check that nothing has been reported
+    private void assertNothingReported() throws Exception {
+        assertNull(reported.poll(QUIET_PERIOD_IN_MILLIS*5,TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testSubmissionsInDropFolderAreMarked() throws Exception {
+        startDaemon();
+        assertEquals("s1",nextReported());
+        assertNothingReported();
+    }
+
+    @Test
+    public void testNewAndChangedSubmissionsAreMarked() throws Exception {
+        startDaemon();
+        assertEquals("s1",nextReported());
+
+        // a burst of changes is marked once
+        for (int i=0;i<5;i++) {
+            write(new File(dropFolder,"s2/src/Class" + i + ".java"),"class Class" + i + " {}");
+        }
+        assertEquals("s2",nextReported());
+        assertNothingReported();
+
+        write(new File(dropFolder,"s1/src/Main.java"),"class Main { int i = 42; }");
+        assertEquals("s1",nextReported());
+        assertNothingReported();
+    }
+
+    @Test
+    public void testIgnoredChanges() throws Exception {
+        startDaemon();
+        assertEquals("s1",nextReported());
+
+        // build output, hidden folders, and files directly in the drop folder
+        write(new File(dropFolder,"s1/target/classes/Main.class"),"");
+        write(new File(dropFolder,"s1/.git/HEAD"),"");
+        write(new File(dropFolder,"notes.txt"),"");
+        assertNothingReported();
+    }
+
+    @Test
+    public void testInterruptStopsDaemon() throws Exception {
+        startDaemon();
+        assertEquals("s1",nextReported());
+        daemon.interrupt();
+        daemon.join(10_000);
+        assertFalse(daemon.isAlive());
+        assertNull(failure.get());
+    }
+}
@@ -0,0 +1,133 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingPlan;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.SubmissionContext;
+import nz.ac.wgtn.yamf.commons.OS;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class TimeoutTest {
+
+    // the file the pid of the sleeping process is written to
+    private static volatile File pidFile = null;
+
+    // start a shell that starts a long-running child process, and waits for it
+    private static void sleep() throws Exception {
+        OS.exe("sh","-c","sleep 30 & echo $! > " + pidFile.getAbsolutePath() + "; wait");
+    }
+
+    public static class SchemeWithTimeout {
+        @Test @Marking(name="Q1",marks=1,timeout=1)
+        public void q1() throws Exception {
+            sleep();
+        }
+        @Test @Marking(name="Q2",marks=1)
+        public void q2() {}
+    }
+
+    public static class SchemeWithoutTimeout {
+        @Test @Marking(name="Q1",marks=1)
+        public void q1() throws Exception {
+            sleep();
+        }
+        @Test @Marking(name="Q2",marks=1)
+        public void q2() {}
+    }
+
+    public static class SchemeWithSlowFixture {
+        @BeforeEach
+        public void setupCheck() throws Exception {
+            sleep();
+        }
+        @Test @Marking(name="Q1",marks=1,timeout=1)
+        public void q1() {}
+    }
+
+    @BeforeEach
+    public void setup() {
+        // processes are inspected using procfs
+        assumeTrue(new File("/proc").isDirectory());
+        pidFile = new File(Files.createTempDir(),"pid");
+    }
+
+    // whether a process exists and has not terminated, processes that are not reaped yet (zombies) have terminated
+    private static boolean isRunning(long pid) throws Exception {
+        File stat = new File("/proc/" + pid + "/stat");
+        if (!stat.exists()) {
+            return false;
+        }
+        String content = Files.asCharSource(stat,StandardCharsets.UTF_8).read();
+        // the state follows the name of the executable in parentheses
+        return !content.substring(content.lastIndexOf(')')+1).trim().startsWith("Z");
+    }
+
+    private static long getPid() throws Exception {
+        return Long.parseLong(Files.asCharSource(pidFile,StandardCharsets.UTF_8).read().trim());
+    }
+
+    private static void assertKilled(long pid) throws Exception {
+        // descendants are killed asynchronously
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (isRunning(pid) && System.nanoTime()<deadline) {
+            Thread.sleep(50);
+        }
+        assertFalse(isRunning(pid),"process " + pid + " should have been killed");
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        long start = System.nanoTime();
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithTimeout.class).execute();
+        assertTrue(System.nanoTime()-start < TimeUnit.SECONDS.toNanos(15));
+
+        assertEquals(2,results.size());
+        assertEquals("Q1",results.get(0).getName());
+        assertTrue(results.get(0).isAborted());
+        assertEquals(0,results.get(0).getMark());
+        assertTrue(results.get(0).getFailure().getMessage().contains("timed out"));
+        // the thread running the check is no longer interrupted when the next check runs
+        assertTrue(results.get(1).isSuccess());
+
+        assertKilled(getPid());
+    }
+
+    @Test
+    public void testTimeBudgetExhausted() throws Exception {
+        long start = System.nanoTime();
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithoutTimeout.class).execute(new SubmissionContext(null),1);
+        assertTrue(System.nanoTime()-start < TimeUnit.SECONDS.toNanos(15));
+
+        assertEquals(2,results.size());
+        assertTrue(results.get(0).isAborted());
+        assertTrue(results.get(0).getFailure().getMessage().contains("budget"));
+        // Q2 is not run
+        assertTrue(results.get(1).isAborted());
+        assertEquals(0,results.get(1).getMark());
+
+        assertKilled(getPid());
+    }
+
+    @Test
+    public void testFixtureTimeout() throws Exception {
+        long start = System.nanoTime();
+        List<MarkingResultRecord> results = MarkingPlan.compile(SchemeWithSlowFixture.class).execute();
+        assertTrue(System.nanoTime()-start < TimeUnit.SECONDS.toNanos(15));
+
+        // the fixture is charged to the timeout of the check it is run for
+        assertEquals(1,results.size());
+        assertTrue(results.get(0).isAborted());
+        assertEquals(0,results.get(0).getMark());
+        assertTrue(results.get(0).getFailure().getMessage().contains("fixture setupCheck has timed out"));
+
+        assertKilled(getPid());
+    }
+}
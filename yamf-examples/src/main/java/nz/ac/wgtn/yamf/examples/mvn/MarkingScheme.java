@@ -61,9 +61,8 @@ public class MarkingScheme {
     @Test
     @Marking(name="Q6 -- tests must all succeed", marks = 2)
     public void testTestSuccess () throws Exception {
-        // need to do this again, unless we accept dependencies on other tests with shared state (the  we must fix the test order)
-        // or put this in fixture
         // this will create the /target folder with surefire reports
+        // mvn test is only run once per submission, the result of running it in Q5 is reused (see SubmissionContext)
         MVNActions.test(submission);
         MVNChecks.assertHasNoFailingTests(submission);
     }
@@ -0,0 +1,177 @@
+package nz.ac.wgtn.yamf.reporting.msoffice;
+
+import com.google.common.base.Preconditions;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.reporting.CohortReporter;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.*;
+
+/**
+ * Reporter producing a single MS Excel gradebook for all submissions, with one row per submission and one column per check,
+ * suitable for importing marks into a learning management system.
+ * The workbook is written in streaming mode: only the last ROW_WINDOW rows are kept in memory, older rows are flushed to
+ * a temporary file. This keeps memory usage flat for large cohorts.
+ * Rows for the max marks, the totals of each submission, and the average, minimum and maximum marks of each check are computed with formulas.
+ * Cells of checks requiring manual marking are highlighted.
+ * @author jens dietrich
+ */
+public class MSExcelGradebookReporter implements CohortReporter {
+
+    public static final int ROW_WINDOW = 100;
+    private static final int FIRST_SUBMISSION_ROW = 2;
+
+    private File file = null;
+    private SXSSFWorkbook workbook = null;
+    private SXSSFSheet sheet = null;
+    private List<String> checks = null;
+    private int rowCount = 0;
+    // all styles share one font, fonts and styles are created once per workbook (like the styles of MSExcelReporter)
+    private Font font = null;
+    private CellStyle styleHeaderR = null;
+    private CellStyle styleL = null;
+    private CellStyle styleR = null;
+    private CellStyle styleTodo = null;
+
+    public MSExcelGradebookReporter(File file) {
+        Preconditions.checkArgument(file!=null,"gradebook file must be set");
+        this.file = file;
+    }
+
+    public MSExcelGradebookReporter(String fileName) {
+        this(new File(fileName));
+    }
+
+    @Override
+    public void startCohort(Map<String, Double> maxMarks) {
+        this.workbook = new SXSSFWorkbook(ROW_WINDOW);
+        this.workbook.setCompressTempFiles(true);
+        this.sheet = workbook.createSheet("gradebook");
+        this.checks = new ArrayList<>(maxMarks.keySet());
+        this.rowCount = 0;
+
+        this.font = workbook.createFont();
+        this.font.setColor(IndexedColors.BLACK.index);
+        this.font.setFontHeightInPoints((short) 12);
+        CellStyle styleHeaderC = createCellStyle(HorizontalAlignment.CENTER,IndexedColors.GREY_25_PERCENT);
+        this.styleHeaderR = createCellStyle(HorizontalAlignment.RIGHT,IndexedColors.GREY_25_PERCENT);
+        this.styleL = createCellStyle(HorizontalAlignment.LEFT,null);
+        this.styleR = createCellStyle(HorizontalAlignment.RIGHT,null);
+        this.styleTodo = createCellStyle(HorizontalAlignment.RIGHT,IndexedColors.LIGHT_YELLOW);
+
+        // row 0 -- header, row 1 -- max marks
+        Row row = sheet.createRow(rowCount++);
+        int col = 0;
+        addCell(row,col++,styleHeaderC,"submission");
+        for (String check:checks) {
+            addCell(row,col++,styleHeaderC,check);
+        }
+        addCell(row,col++,styleHeaderC,"total");
+
+        row = sheet.createRow(rowCount++);
+        col = 0;
+        addCell(row,col++,styleHeaderR,"max");
+        for (String check:checks) {
+            Cell cell = row.createCell(col++);
+            cell.setCellValue(maxMarks.get(check));
+            cell.setCellStyle(styleHeaderR);
+        }
+        addFormulaCell(row,col++,styleHeaderR,"SUM(" + getRowRange(row.getRowNum()) + ")");
+
+        // column widths must be set upfront, autosizing would require all rows to be in memory
+        sheet.setColumnWidth(0,40*256);
+        for (int i=0;i<checks.size();i++) {
+            sheet.setColumnWidth(i+1,Math.max(10,Math.min(40,checks.get(i).length()+2))*256);
+        }
+        sheet.createFreezePane(1,FIRST_SUBMISSION_ROW);
+    }
+
+    @Override
+    public void addSubmission(File submission, List<MarkingResultRecord> results) {
+        Preconditions.checkState(workbook!=null,"cohort has not been started");
+        Map<String,MarkingResultRecord> resultsByCheck = new HashMap<>();
+        for (MarkingResultRecord record:results) {
+            resultsByCheck.put(record.getName(),record);
+        }
+        Row row = sheet.createRow(rowCount++);
+        int col = 0;
+        addCell(row,col++,styleL,submission.getName());
+        for (String check:checks) {
+            MarkingResultRecord record = resultsByCheck.get(check);
+            Cell cell = row.createCell(col++);
+            if (record==null) {
+                cell.setCellStyle(styleTodo); // check has not been run
+            }
+            else {
+                cell.setCellValue(record.getMark());
+                cell.setCellStyle(record.isManualMarkingRequired() || record.isAborted() ? styleTodo : styleR);
+            }
+        }
+        addFormulaCell(row,col++,styleR,"SUM(" + getRowRange(row.getRowNum()) + ")");
+    }
+
+    @Override
+    public void finishCohort() throws IOException {
+        Preconditions.checkState(workbook!=null,"cohort has not been started");
+        int lastSubmissionRow = rowCount-1;
+        for (String function:new String[]{"AVERAGE","MIN","MAX"}) {
+            Row row = sheet.createRow(rowCount++);
+            addCell(row,0,styleHeaderR,function.toLowerCase());
+            for (int col=1;col<=checks.size()+1;col++) {
+                if (lastSubmissionRow>=FIRST_SUBMISSION_ROW) {
+                    String column = CellReference.convertNumToColString(col);
+                    addFormulaCell(row,col,styleHeaderR,function + "(" + column + (FIRST_SUBMISSION_ROW+1) + ":" + column + (lastSubmissionRow+1) + ")");
+                }
+                else {
+                    addCell(row,col,styleHeaderR,"");
+                }
+            }
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            workbook.write(out);
+        }
+        finally {
+            workbook.dispose(); // delete temporary files
+            workbook.close();
+            workbook = null;
+        }
+    }
+
+    // the range of check cells in a row, in A1 notation
+    private String getRowRange(int row) {
+        if (checks.isEmpty()) {
+            return "0";
+        }
+        return "B" + (row+1) + ":" + CellReference.convertNumToColString(checks.size()) + (row+1);
+    }
+
+    private void addCell(Row row, int col, CellStyle style, String value) {
+        Cell cell = row.createCell(col);
+        cell.setCellValue(value);
+        cell.setCellStyle(style);
+    }
+
+    private void addFormulaCell(Row row, int col, CellStyle style, String formula) {
+        Cell cell = row.createCell(col);
+        cell.setCellFormula(formula);
+        cell.setCellStyle(style);
+    }
+
+    private CellStyle createCellStyle(HorizontalAlignment hAlign, IndexedColors highlight) {
+        CellStyle style = workbook.createCellStyle();
+        if (highlight!=null) {
+            style.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+            style.setFillForegroundColor(highlight.getIndex());
+        }
+        style.setFont(font);
+        style.setVerticalAlignment(VerticalAlignment.CENTER);
+        style.setAlignment(hAlign);
+        return style;
+    }
+}
@@ -1,33 +1,54 @@
 package nz.ac.wgtn.yamf.reporting.msoffice;
 
-import com.google.common.collect.Lists;
-import com.google.common.io.Files;
+import com.google.common.base.Preconditions;
 import nz.ac.wgtn.yamf.Attachment;
 import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.reporting.AttachmentBundle;
 import nz.ac.wgtn.yamf.reporting.Reporter;
 import nz.ac.wgtn.yamf.reporting.StackTraceFilters;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 /**
  * Reporter producing MS Excel files that are editable.
+ * Besides marks, the resources used by each check are reported (wall time, CPU time, CPU time and peak RSS of child processes).
+ * The content of attachments is displayed in separate sheets, one sheet for each distinct content (i.e., files with the same
+ * content attached to several checks are displayed once). Alternatively, attachments can be stored in a bundle shared by
+ * the reports of all submissions, and referenced by their content hash (see referenceAttachmentsIn).
+ * Workbooks are written in streaming mode (only the last ROW_WINDOW rows of each sheet are kept in memory), with a fixed set
+ * of cell styles, and with column widths computed from the length of values. Attachments are read one line at a time, and
+ * are truncated after a max number of lines (see setMaxAttachmentRows).
  * @author jens dietrich
  */
 public class MSExcelReporter implements Reporter {
+
+    public static final int ROW_WINDOW = 100;
+    public static final int DEFAULT_MAX_ATTACHMENT_ROWS = 10_000;
+    private static final int MIN_COLUMN_WIDTH = 8;
+    private static final int MAX_COLUMN_WIDTH = 60;
+    private static final int ATTACHMENT_COLUMN_WIDTH = 120;
+    private static final int MAX_CELL_TEXT_LENGTH = SpreadsheetVersion.EXCEL2007.getMaxTextLength();
+
     private File file = null;
     private boolean reportFailureAndErrorDetails = false;
     private Predicate<StackTraceElement> stacktraceElementFilter = StackTraceFilters.DEFAULT;
+    private AttachmentBundle attachmentBundle = null;
+    private int maxAttachmentRows = DEFAULT_MAX_ATTACHMENT_ROWS;
     private static char[] ROW_NAMES =  "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
     private static Logger LOGGER = LogManager.getLogger("excel-reporter");
 
@@ -49,40 +70,56 @@ public class MSExcelReporter implements Reporter {
         this(false,fileName);
     }
 
+    // store attachments in a bundle, and reference them by content hash instead of displaying them in separate sheets
+    public MSExcelReporter referenceAttachmentsIn(AttachmentBundle attachmentBundle) {
+        this.attachmentBundle = attachmentBundle;
+        return this;
+    }
+
+    // the max number of lines of an attachment displayed, longer attachments are truncated
+    public int getMaxAttachmentRows() {
+        return maxAttachmentRows;
+    }
+
+    public void setMaxAttachmentRows(int maxAttachmentRows) {
+        Preconditions.checkArgument(maxAttachmentRows>0,"max number of attachment rows must be positive");
+        this.maxAttachmentRows = maxAttachmentRows;
+    }
+
     @Override
     public void generateReport(List<MarkingResultRecord> markingResultRecords) {
 
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        XSSFSheet sheet = workbook.createSheet("results");
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        Styles styles = new Styles(workbook);
+        SXSSFSheet sheet = workbook.createSheet("results");
         int rowCount = 0;
 
         // row 0 -- header
-        String[] titles = new String[]{"task","status","marks","maxMarks","notes","details"};
+        String[] titles = new String[]{"task","status","marks","maxMarks","notes","details","wall time (ms)","cpu time (ms)","child processes cpu time (ms)","child processes peak rss (KB)"};
+        int[] columnWidths = Arrays.stream(titles).mapToInt(String::length).toArray();
         Row row = sheet.createRow(rowCount++);
-        addHeaderCells(workbook,row,titles);
+        addHeaderCells(styles,row,titles);
 
         double marks = 0;
         double maxMarks = 0;
 
-        CellStyle styleL = createCellStyle(workbook,HorizontalAlignment.LEFT,false);
-        CellStyle styleC = createCellStyle(workbook,HorizontalAlignment.CENTER,false);
-        CellStyle styleR = createCellStyle(workbook,HorizontalAlignment.RIGHT,false);
-
-        List<Attachment> attachments = new ArrayList<>();
+        Map<String,Attachment> attachments = new LinkedHashMap<>(); // sheet names -> attachments, one for each distinct content
+        Map<String,String> sheetNames = new LinkedHashMap<>(); // content hashes -> sheet names
         for (MarkingResultRecord record:markingResultRecords) {
             marks = marks + record.getMark();
             maxMarks = maxMarks + record.getMaxMark();
             int col = 0;
 
             row = sheet.createRow(rowCount++);
-            addCell(row,col++,styleL,record.getName());
+            addCell(row,col++,styles.left,record.getName(),columnWidths);
 
             String status = (record.isManualMarkingRequired() || record.isAborted()) ? "todo" :
                 record.isSuccess() ? "ok" : "fail";
-            addCell(row,col++,styleC,status);
+            addCell(row,col++,styles.center,status,columnWidths);
 
-            addCell(row,col++,styleR,record.getMark());
-            addCell(row,col++,styleR,record.getMaxMark());
+            addCell(row,col++,styles.right,record.getMark());
+            addCell(row,col++,styles.right,record.getMaxMark());
 
             String notes = "";
             if (record.isManualMarkingRequired()) {
@@ -90,66 +127,74 @@ public class MSExcelReporter implements Reporter {
             }
             else if (record.isAborted() && record.getThrowable()!=null) {
                 notes = record.getThrowable().getMessage();
+                if (record.getThrowable().getCause()!=null) {
+                    // e.g. the failure of a check that has timed out
+                    notes = notes + System.lineSeparator() + "caused by: " + record.getThrowable().getCause();
+                }
             }
 
-            addCell(row,col++,styleL,notes);
+            addCell(row,col++,styles.left,notes,columnWidths);
 
             Collection<Attachment>attachmentsOfThisRecord = record.getAttachments();
             List<String> attachmentNames = new ArrayList<>();
             for (Attachment attachment:attachmentsOfThisRecord) {
-                attachments.add(attachment);
-                attachmentNames.add("details-"+attachments.size());
+                attachmentNames.add(referenceAttachment(attachment,attachments,sheetNames));
             }
             String txt = attachmentNames.stream().collect(Collectors.joining(","));
-            addCell(row,col++,styleL,txt);
+            addCell(row,col++,styles.left,txt,columnWidths);
+
+            addCell(row,col++,styles.right,record.getWallTimeInMillis());
+            addCell(row,col++,styles.right,record.getCpuTimeInMillis());
+            addCell(row,col++,styles.right,record.getChildProcessCpuTimeInMillis());
+            addCell(row,col++,styles.right,record.getChildProcessPeakRssInKB());
         }
 
         // TODO summary
 
-        styleC = createCellStyle(workbook,HorizontalAlignment.CENTER,true);
-        styleR = createCellStyle(workbook,HorizontalAlignment.RIGHT,true);
-
         row = sheet.createRow(rowCount++);
         int col = 0;
 
-        addCell(row,col++,styleR,"summary");
-        addCell(row,col++,styleC,"");
+        addCell(row,col++,styles.highlightedRight,"summary",columnWidths);
+        addCell(row,col++,styles.highlightedCenter,"",columnWidths);
 
         Cell cell = row.createCell(col++);
         String formula = IntStream.range(2,rowCount).mapToObj(i -> "C"+i).collect(Collectors.joining("+"));
         cell.setCellFormula(formula );  // =SUM(C2:C3)
-        cell.setCellStyle(styleR);
+        cell.setCellStyle(styles.highlightedRight);
 
         cell = row.createCell(col++);
         formula = IntStream.range(2,rowCount).mapToObj(i -> "D"+i).collect(Collectors.joining("+"));
         cell.setCellFormula(formula );  // =SUM(C2:C3)
-        cell.setCellStyle(styleR);
+        cell.setCellStyle(styles.highlightedRight);
+
+        addCell(row,col++,styles.highlightedCenter,"",columnWidths);
+        addCell(row,col++,styles.highlightedCenter,"",columnWidths);
 
-        addCell(row,col++,styleC,"");
-        addCell(row,col++,styleC,"");
+        // resources: total times, max peak rss
+        for (String column:new String[]{"G","H","I"}) {
+            cell = row.createCell(col++);
+            cell.setCellFormula(rowCount>2 ? "SUM(" + column + "2:" + column + (rowCount-1) + ")" : "0");
+            cell.setCellStyle(styles.highlightedRight);
+        }
+        cell = row.createCell(col++);
+        cell.setCellFormula(rowCount>2 ? "MAX(J2:J" + (rowCount-1) + ")" : "0");
+        cell.setCellStyle(styles.highlightedRight);
 
+        // column widths are computed from the length of values, instead of using autoSizeColumn (which needs font metrics for all cells)
         for (int i=0;i<titles.length;i++) {
-            sheet.autoSizeColumn(i);
+            sheet.setColumnWidth(i,Math.max(MIN_COLUMN_WIDTH,Math.min(MAX_COLUMN_WIDTH,columnWidths[i]+2))*256);
         }
 
         // display details in different sheets
-        int attachmentCounter = 1;
-        for (Attachment attachment:attachments) {
-            XSSFSheet aSheet = workbook.createSheet("details-" + (attachmentCounter++));
-            rowCount = 0;
-            Row aRow = aSheet.createRow(rowCount++);
+        for (Map.Entry<String,Attachment> sheetAndAttachment:attachments.entrySet()) {
+            Attachment attachment = sheetAndAttachment.getValue();
+            SXSSFSheet aSheet = workbook.createSheet(sheetAndAttachment.getKey());
+            aSheet.setColumnWidth(0,ATTACHMENT_COLUMN_WIDTH*256);
+            Row aRow = aSheet.createRow(0);
             Cell aCell = aRow.createCell(0);
             aCell.setCellValue(attachment.getName());
-            aCell.setCellStyle(createCellStyle(workbook,HorizontalAlignment.LEFT,true));
-            List<String> lines = loadContent(attachment);
-            CellStyle style = createCellStyle(workbook,HorizontalAlignment.LEFT,false);
-            for (String line:lines) {
-                aRow = aSheet.createRow(rowCount++);
-                aCell = aRow.createCell(0);
-                aCell.setCellValue(line);
-                aCell.setCellStyle(style);
-            }
-            aSheet.autoSizeColumn(0);
+            aCell.setCellStyle(styles.highlightedLeft);
+            addContent(aSheet,attachment,styles.left);
         }
 
         // write file
@@ -160,23 +205,69 @@ public class MSExcelReporter implements Reporter {
         catch (IOException e) {
             e.printStackTrace();
         }
+        finally {
+            workbook.dispose(); // delete temporary files
+        }
 
     }
 
-    private List<String> loadContent(Attachment attachment) {
+    // returns the name of the sheet displaying the attachment, or the name of the blob in the bundle
+    private String referenceAttachment(Attachment attachment, Map<String,Attachment> attachments, Map<String,String> sheetNames) {
+        String hash = null;
         try {
-            return Files.readLines(attachment.getFile(), Charset.defaultCharset());
+            if (attachmentBundle!=null) {
+                return attachmentBundle.getFile().getName() + ":" + AttachmentBundle.getEntryName(attachmentBundle.add(attachment));
+            }
+            hash = attachment.getContentHash();
+        }
+        catch (IOException x) {
+            LOGGER.error("Cannot read attachment " + attachment.getName(),x);
+        }
+        String sheetName = hash==null ? null : sheetNames.get(hash);
+        if (sheetName==null) {
+            sheetName = "details-" + (attachments.size()+1);
+            attachments.put(sheetName,attachment);
+            if (hash!=null) {
+                sheetNames.put(hash,sheetName);
+            }
+        }
+        return sheetName;
+    }
+
+    // add the lines of an attachment to a sheet, lines are read one at a time, and at most maxAttachmentRows lines are added
+    private void addContent(SXSSFSheet sheet, Attachment attachment, CellStyle style) {
+        int rowCount = 1;
+        try (BufferedReader in = attachment.getContent().asCharSource(Charset.defaultCharset()).openBufferedStream()) {
+            String line = null;
+            while ((line = in.readLine())!=null) {
+                if (rowCount>maxAttachmentRows) {
+                    addLine(sheet,rowCount++,style,"... (truncated after " + maxAttachmentRows + " lines)");
+                    return;
+                }
+                addLine(sheet,rowCount++,style,line);
+            }
         }
         catch (IOException x) {
             LOGGER.error(x);
-            return Lists.newArrayList("details not available");
+            addLine(sheet,rowCount,style,"details not available");
         }
     }
 
-    private void addCell(Row row, int col, CellStyle style, String value) {
+    private void addLine(SXSSFSheet sheet, int rowNum, CellStyle style, String line) {
+        Cell cell = sheet.createRow(rowNum).createCell(0);
+        cell.setCellValue(line.length()>MAX_CELL_TEXT_LENGTH ? line.substring(0,MAX_CELL_TEXT_LENGTH) : line);
+        cell.setCellStyle(style);
+    }
+
+    // also records the width of the value in columnWidths (only the first line is considered for values with several lines)
+    private void addCell(Row row, int col, CellStyle style, String value, int[] columnWidths) {
         Cell cell = row.createCell(col);
         cell.setCellValue(value);
         cell.setCellStyle(style);
+        if (value!=null) {
+            int lineBreak = value.indexOf('\n');
+            columnWidths[col] = Math.max(columnWidths[col],lineBreak<0 ? value.length() : lineBreak);
+        }
     }
 
     private void addCell(Row row, int col, CellStyle style, int value) {
@@ -191,30 +282,47 @@ public class MSExcelReporter implements Reporter {
         cell.setCellStyle(style);
     }
 
-    private void addHeaderCells(Workbook workbook,Row row,String... headers) {
+    private void addHeaderCells(Styles styles,Row row,String... headers) {
         int colNum = 0;
         for (String header:headers) {
             Cell cell = row.createCell(colNum++);
             cell.setCellValue(header);
-            cell.setCellStyle(createCellStyle(workbook,HorizontalAlignment.CENTER,true));
+            cell.setCellStyle(styles.highlightedCenter);
         }
     }
 
+    // the styles used in a workbook, created once per workbook and sharing one font
+    private static class Styles {
+        CellStyle left = null;
+        CellStyle center = null;
+        CellStyle right = null;
+        CellStyle highlightedLeft = null;
+        CellStyle highlightedCenter = null;
+        CellStyle highlightedRight = null;
+
+        Styles(Workbook workbook) {
+            Font font = workbook.createFont();
+            font.setColor(IndexedColors.BLACK.index);
+            font.setFontHeightInPoints((short) 12);
+            left = createCellStyle(workbook,font,HorizontalAlignment.LEFT,false);
+            center = createCellStyle(workbook,font,HorizontalAlignment.CENTER,false);
+            right = createCellStyle(workbook,font,HorizontalAlignment.RIGHT,false);
+            highlightedLeft = createCellStyle(workbook,font,HorizontalAlignment.LEFT,true);
+            highlightedCenter = createCellStyle(workbook,font,HorizontalAlignment.CENTER,true);
+            highlightedRight = createCellStyle(workbook,font,HorizontalAlignment.RIGHT,true);
+        }
 
-    private CellStyle createCellStyle(Workbook workbook,HorizontalAlignment hAlign, boolean highlight) {
-        CellStyle dataStyle1 = workbook.createCellStyle();
-        Font dataFont = workbook.createFont();
-        dataFont.setColor(IndexedColors.BLACK.index);
-        dataFont.setFontHeightInPoints((short) 12);
-        if (highlight) {
-            dataFont.setBold(false);
-            dataStyle1.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-            dataStyle1.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+        private static CellStyle createCellStyle(Workbook workbook, Font font, HorizontalAlignment hAlign, boolean highlight) {
+            CellStyle dataStyle1 = workbook.createCellStyle();
+            if (highlight) {
+                dataStyle1.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+                dataStyle1.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+            }
+            dataStyle1.setFillBackgroundColor(IndexedColors.WHITE.index);
+            dataStyle1.setFont(font);
+            dataStyle1.setVerticalAlignment(VerticalAlignment.CENTER);
+            dataStyle1.setAlignment(hAlign);
+            return dataStyle1;
         }
-        dataStyle1.setFillBackgroundColor(IndexedColors.WHITE.index);
-        dataStyle1.setFont(dataFont);
-        dataStyle1.setVerticalAlignment(VerticalAlignment.CENTER);
-        dataStyle1.setAlignment(hAlign);
-        return dataStyle1;
     }
 }
@@ -96,6 +96,10 @@ public class MSWordReporter implements Reporter {
                         }
                         space(document);
                     }
+                    if (record.getThrowable().getCause()!=null) {
+                        addTextBlock(document, false, colour, 12, "caused by: " + record.getThrowable().getCause());
+                        space(document);
+                    }
                     // stack trace
                     if (this.reportFailureAndErrorDetails) {
                         for (StackTraceElement element : record.getThrowable().getStackTrace()) {
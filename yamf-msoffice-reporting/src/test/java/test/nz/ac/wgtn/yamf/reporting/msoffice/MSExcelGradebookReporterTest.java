@@ -0,0 +1,140 @@
+package test.nz.ac.wgtn.yamf.reporting.msoffice;
+
+import com.google.common.io.Files;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingPlan;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.reporting.msoffice.MSExcelGradebookReporter;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MSExcelGradebookReporterTest {
+
+    public static class Scheme {
+        @Test @Marking(name="Q1",marks=2)
+        public void q1() {}
+        @Test @Marking(name="Q2",marks=3)
+        public void q2() {
+            Assertions.fail();
+        }
+    }
+
+    private File folder = null;
+    private File file = null;
+    private Map<String,Double> maxMarks = new TreeMap<>();
+
+    @BeforeEach
+    public void setup() {
+        folder = Files.createTempDir();
+        file = new File(folder,"gradebook.xlsx");
+        maxMarks.put("Q1",2.0);
+        maxMarks.put("Q2",3.0);
+    }
+
+    // write a gradebook for the given number of submissions, each with the results of marking the scheme
+    private Workbook writeGradebook(int submissionCount) throws Exception {
+        List<MarkingResultRecord> results = MarkingPlan.compile(Scheme.class).execute();
+        MSExcelGradebookReporter reporter = new MSExcelGradebookReporter(file);
+        reporter.startCohort(maxMarks);
+        for (int i=1;i<=submissionCount;i++) {
+            reporter.addSubmission(new File(folder,"s"+i),results);
+        }
+        reporter.finishCohort();
+        return new XSSFWorkbook(file);
+    }
+
+    private static String getFormula(Sheet sheet, String cell) {
+        CellReference reference = new CellReference(cell);
+        return sheet.getRow(reference.getRow()).getCell(reference.getCol()).getCellFormula();
+    }
+
+    private static Cell getCell(Sheet sheet, String cell) {
+        CellReference reference = new CellReference(cell);
+        return sheet.getRow(reference.getRow()).getCell(reference.getCol());
+    }
+
+    @Test
+    public void testNoSubmissions() throws Exception {
+        try (Workbook workbook = writeGradebook(0)) {
+            Sheet sheet = workbook.getSheet("gradebook");
+            assertEquals("SUM(B2:C2)",getFormula(sheet,"D2"));
+            // there are no submissions to aggregate, the summary rows follow the max marks
+            assertEquals(5,sheet.getPhysicalNumberOfRows());
+            assertEquals("average",getCell(sheet,"A3").getStringCellValue());
+            for (String cell:new String[]{"B3","C3","D3","B5","D5"}) {
+                assertEquals(CellType.STRING,getCell(sheet,cell).getCellType());
+                assertEquals("",getCell(sheet,cell).getStringCellValue());
+            }
+        }
+    }
+
+    @Test
+    public void testOneSubmission() throws Exception {
+        try (Workbook workbook = writeGradebook(1)) {
+            Sheet sheet = workbook.getSheet("gradebook");
+            assertEquals("s1",getCell(sheet,"A3").getStringCellValue());
+            assertEquals("SUM(B3:C3)",getFormula(sheet,"D3"));
+            assertEquals("AVERAGE(B3:B3)",getFormula(sheet,"B4"));
+            assertEquals("MIN(C3:C3)",getFormula(sheet,"C5"));
+            assertEquals("MAX(D3:D3)",getFormula(sheet,"D6"));
+            assertEquals(6,sheet.getPhysicalNumberOfRows());
+        }
+    }
+
+    @Test
+    public void testSeveralSubmissions() throws Exception {
+        try (Workbook workbook = writeGradebook(3)) {
+            Sheet sheet = workbook.getSheet("gradebook");
+            assertEquals("s3",getCell(sheet,"A5").getStringCellValue());
+            assertEquals("SUM(B5:C5)",getFormula(sheet,"D5"));
+            assertEquals("AVERAGE(B3:B5)",getFormula(sheet,"B6"));
+            assertEquals("MIN(C3:C5)",getFormula(sheet,"C7"));
+            assertEquals("MAX(D3:D5)",getFormula(sheet,"D8"));
+            assertEquals(8,sheet.getPhysicalNumberOfRows());
+
+            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+            assertEquals(5,evaluator.evaluate(getCell(sheet,"D2")).getNumberValue(),0.001);
+            assertEquals(2,evaluator.evaluate(getCell(sheet,"D4")).getNumberValue(),0.001);
+            assertEquals(2,evaluator.evaluate(getCell(sheet,"B6")).getNumberValue(),0.001);
+            assertEquals(0,evaluator.evaluate(getCell(sheet,"C7")).getNumberValue(),0.001);
+            assertEquals(2,evaluator.evaluate(getCell(sheet,"D8")).getNumberValue(),0.001);
+        }
+    }
+
+    @Test
+    public void testStylesShareFont() throws Exception {
+        try (Workbook workbook = writeGradebook(3)) {
+            Sheet sheet = workbook.getSheet("gradebook");
+            int font = getCell(sheet,"A1").getCellStyle().getFontIndexAsInt();
+            for (String cell:new String[]{"D2","A3","B3","C3","A6","B8"}) {
+                assertEquals(font,getCell(sheet,cell).getCellStyle().getFontIndexAsInt());
+            }
+            // the default font of the workbook, and the font shared by all styles
+            assertEquals(2,workbook.getNumberOfFontsAsInt());
+        }
+    }
+
+    @Test
+    public void testNoChecks() throws Exception {
+        MSExcelGradebookReporter reporter = new MSExcelGradebookReporter(file);
+        reporter.startCohort(new TreeMap<>());
+        reporter.addSubmission(new File(folder,"s1"),Collections.emptyList());
+        reporter.finishCohort();
+        try (Workbook workbook = new XSSFWorkbook(file)) {
+            Sheet sheet = workbook.getSheet("gradebook");
+            assertEquals("SUM(0)",getFormula(sheet,"B2"));
+            assertEquals("SUM(0)",getFormula(sheet,"B3"));
+            assertEquals("AVERAGE(B3:B3)",getFormula(sheet,"B4"));
+        }
+    }
+}
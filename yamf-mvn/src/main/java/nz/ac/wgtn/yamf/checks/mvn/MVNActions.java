@@ -1,6 +1,7 @@
 package nz.ac.wgtn.yamf.checks.mvn;
 
 import com.google.common.base.Preconditions;
+import nz.ac.wgtn.yamf.SubmissionContext;
 import nz.ac.wgtn.yamf.checks.junit.JUnitActions;
 import nz.ac.wgtn.yamf.checks.junit.JUnitVersion;
 import nz.ac.wgtn.yamf.checks.junit.TestResults;
@@ -11,17 +12,29 @@ import org.zeroturnaround.exec.ProcessResult;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Various mvn actions.
+ * Running mvn to compile or test a project, or to compute its classpath, is memoized per submission (see SubmissionContext),
+ * i.e. if several checks run the same mvn command for the same project while a submission is marked, mvn is only run once.
+ * Commands with other phases or goals (such as clean, install or custom goals) may have side effects, and are always run.
+ * Running them also discards the results of mvn commands memoized before, e.g. clean deletes the classes compiled by a memoized compile.
  * @author jens dietrich
  */
 public class MVNActions {
 
+    // phases and goals that can be memoized, running them again for an unchanged project has no effect
+    private static final Set<String> MEMOIZED_PHASES_AND_GOALS = new HashSet<>(Arrays.asList(
+        "compile", "test-compile", "compiler:testCompile", "test", "dependency:build-classpath"
+    ));
+
     public static void mvn(File projectFolder,String... phases) throws Exception {
         Preconditions.checkArgument(projectFolder!=null,"Cannot run \"mvn\" -- project folder is null");
         Preconditions.checkArgument(projectFolder.exists(),"Cannot run \"mvn\" -- project folder does not exist: " + projectFolder.getAbsolutePath());
@@ -30,11 +43,30 @@ public class MVNActions {
         for (int i=0;i<phases.length;i++) {
             cmd[i+1] = phases[i];
         }
-        ProcessResult result = OS.exe(projectFolder,cmd);
+        ProcessResult result = exe(projectFolder,cmd);
         String cmdAsString = "mvn " + Stream.of(phases).collect(Collectors.joining(" "));
         Assumptions.assumeTrue(result.getExitValue()==0,"Command \"" + cmdAsString + "\" has failed " + System.lineSeparator() + result.outputString());
     }
 
+    // run a command, memoized for the submission being marked if it only has phases and goals without side effects
+    private static ProcessResult exe(File projectFolder, String... cmd) throws Exception {
+        if (!isMemoized(cmd)) {
+            try {
+                return OS.exe(projectFolder,cmd);
+            }
+            finally {
+                // the project may have changed, the next memoized command must run mvn again
+                SubmissionContext.invalidate("mvn");
+            }
+        }
+        return SubmissionContext.memoize("mvn",() -> OS.exe(projectFolder,cmd),projectFolder.getAbsoluteFile(),cmd);
+    }
+
+    // the first token is the executable, options (such as -Dmaven.test.failure.ignore=true) are ignored
+    private static boolean isMemoized(String... cmd) {
+        return Stream.of(cmd).skip(1).filter(token -> !token.startsWith("-")).allMatch(MEMOIZED_PHASES_AND_GOALS::contains);
+    }
+
     public static void compile (File projectFolder) throws Exception {
         mvn(projectFolder,"compile");
     }
@@ -53,10 +85,10 @@ public class MVNActions {
         Preconditions.checkArgument(projectFolder.exists(),"Cannot run \"mvn\" -- project folder does not exist: " + projectFolder.getAbsolutePath());
         ProcessResult result = null;
         if (ignoreFailed) {
-            result = OS.exe(projectFolder, "mvn", "-Dmaven.test.failure.ignore=true", "-Dmaven.test.error.ignore=true","test");
+            result = exe(projectFolder, "mvn", "-Dmaven.test.failure.ignore=true", "-Dmaven.test.error.ignore=true","test");
         }
         else {
-            result = OS.exe(projectFolder, "mvn", "test");
+            result = exe(projectFolder, "mvn", "test");
         }
         Assumptions.assumeTrue(result.getExitValue()==0,"Command \"mvn test\" has failed " + System.lineSeparator() + result.outputString());
     }
@@ -111,7 +143,7 @@ public class MVNActions {
 
 
     public static String getProjectClassPath (File projectFolder) throws Exception {
-        ProcessResult result = OS.exe(projectFolder, "mvn","dependency:build-classpath");
+        ProcessResult result = exe(projectFolder, "mvn","dependency:build-classpath");
         String output = result.outputString();
 
         //  look for output:
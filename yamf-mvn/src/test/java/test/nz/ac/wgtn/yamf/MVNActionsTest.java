@@ -0,0 +1,90 @@
+package test.nz.ac.wgtn.yamf;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import nz.ac.wgtn.yamf.Marking;
+import nz.ac.wgtn.yamf.MarkingPlan;
+import nz.ac.wgtn.yamf.MarkingResultRecord;
+import nz.ac.wgtn.yamf.SubmissionContext;
+import nz.ac.wgtn.yamf.checks.mvn.MVNActions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MVNActionsTest {
+
+    private File projectFolder = null;
+
+    public static class SchemeRunningMvnTwice {
+        @Test @Marking(name="Q1",marks=1)
+        public void compileAfterClean(SubmissionContext context) throws Exception {
+            File projectFolder = context.getSubmission();
+            File classesFolder = new File(projectFolder,"target/classes");
+            MVNActions.compile(projectFolder);
+            assertTrue(classesFolder.exists());
+            MVNActions.mvn(projectFolder,"clean");
+            assertFalse(classesFolder.exists());
+            // clean has discarded the memoized result, mvn is run again
+            MVNActions.compile(projectFolder);
+            assertTrue(classesFolder.exists());
+        }
+
+        @Test @Marking(name="Q2",marks=1)
+        public void cleanTwice(SubmissionContext context) throws Exception {
+            File projectFolder = context.getSubmission();
+            File marker = new File(projectFolder,"target/marker.txt");
+            createMarker(marker);
+            MVNActions.mvn(projectFolder,"clean");
+            assertFalse(marker.exists());
+            createMarker(marker);
+            // not memoized, clean has side effects
+            MVNActions.mvn(projectFolder,"clean");
+            assertFalse(marker.exists());
+        }
+
+        private static void createMarker(File marker) throws Exception {
+            marker.getParentFile().mkdirs();
+            Files.write(marker.toPath(),"marker".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @BeforeEach
+    public void createProject() throws Exception {
+        projectFolder = Files.createTempDirectory("yamf-mvn-").toFile();
+        String pom = "<project xmlns=\"http://maven.apache.org/POM/4.0.0\">\n" +
+            "  <modelVersion>4.0.0</modelVersion>\n" +
+            "  <groupId>nz.ac.wgtn.yamf</groupId>\n" +
+            "  <artifactId>yamf-mvn-test-project</artifactId>\n" +
+            "  <version>1.0.0</version>\n" +
+            "  <properties>\n" +
+            "    <maven.compiler.source>1.8</maven.compiler.source>\n" +
+            "    <maven.compiler.target>1.8</maven.compiler.target>\n" +
+            "  </properties>\n" +
+            "</project>\n";
+        Files.write(new File(projectFolder,"pom.xml").toPath(),pom.getBytes(StandardCharsets.UTF_8));
+        File sourceFolder = new File(projectFolder,"src/main/java/foo");
+        sourceFolder.mkdirs();
+        Files.write(new File(sourceFolder,"Foo.java").toPath(),"package foo; public class Foo {}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @AfterEach
+    public void deleteProject() throws Exception {
+        MoreFiles.deleteRecursively(projectFolder.toPath(),RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Test
+    public void testMemoizedAndNonMemoizedCommands() {
+        try (SubmissionContext context = new SubmissionContext(projectFolder)) {
+            List<MarkingResultRecord> results = MarkingPlan.compile(SchemeRunningMvnTwice.class).execute(context,0);
+            assertEquals(2,results.size());
+            for (MarkingResultRecord result:results) {
+                assertTrue(result.isSuccess(),() -> result.getName() + " has failed: " + result.getFailure());
+            }
+        }
+    }
+}